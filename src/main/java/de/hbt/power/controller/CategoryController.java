@@ -2,8 +2,10 @@ package de.hbt.power.controller;
 
 import de.hbt.power.exception.SkillServiceException;
 import de.hbt.power.model.SkillCategory;
+import de.hbt.power.model.dto.TCategoryNode;
 import de.hbt.power.repo.SkillCategoryRepository;
 import de.hbt.power.service.CategoryService;
+import de.hbt.power.service.SkillTreeSnapshotService;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
@@ -12,6 +14,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -30,11 +33,15 @@ public class CategoryController {
 
     private final CategoryService categoryService;
 
+    private final SkillTreeSnapshotService skillTreeSnapshotService;
+
 
     @Autowired
-    CategoryController(SkillCategoryRepository skillCategoryRepository, CategoryService categoryService1) {
+    CategoryController(SkillCategoryRepository skillCategoryRepository, CategoryService categoryService1,
+                       SkillTreeSnapshotService skillTreeSnapshotService) {
         this.skillCategoryRepository = skillCategoryRepository;
         this.categoryService = categoryService1;
+        this.skillTreeSnapshotService = skillTreeSnapshotService;
     }
 
     @RequestMapping(value = "", method = RequestMethod.GET)
@@ -64,20 +71,56 @@ public class CategoryController {
     }
 
     @ApiOperation(value = "Returns a category",
-            notes = "Returns the category identified by the given ID.",
+            notes = "Returns the category identified by the given ID. <br/>" +
+                    "The response carries the current catalog version as ETag; Requests with a matching " +
+                    "<code>If-None-Match</code> header are answered with 304.",
             response = SkillCategory.class,
             httpMethod = "GET",
             produces = "application/json")
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Category found and returned in response."),
+            @ApiResponse(code = 304, message = "Catalog has not changed since the version given in If-None-Match."),
             @ApiResponse(code = 404, message = "No category found for the provided ID.")
     })
     @GetMapping(value = "/{id}")
-    public ResponseEntity<SkillCategory> getCategoryById(@PathVariable Integer id) {
+    public ResponseEntity<SkillCategory> getCategoryById(@PathVariable Integer id, WebRequest request) {
         SkillCategory category = getCategory(id);
+        if (request.checkNotModified(skillTreeSnapshotService.getCatalogETag())) {
+            return null;
+        }
         return ResponseEntity.ok(category);
     }
 
+    @ApiOperation(value = "Returns the subtree below a category",
+            notes = "Returns the category identified by the given ID together with its child categories and skills, " +
+                    "down to the given depth. A depth of 0 returns only the category itself, a depth of 1 includes its " +
+                    "direct children and so on. <br/>" +
+                    "Every node carries the number of its child categories and skills, so nodes that were cut off can " +
+                    "be expanded with a subsequent request.",
+            response = TCategoryNode.class,
+            httpMethod = "GET",
+            produces = "application/json")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Subtree returned in response."),
+            @ApiResponse(code = 304, message = "Catalog has not changed since the version given in If-None-Match."),
+            @ApiResponse(code = 400, message = "Negative depth."),
+            @ApiResponse(code = 404, message = "No category found for the provided ID.")
+    })
+    @GetMapping(value = "/{id}/tree")
+    public ResponseEntity<TCategoryNode> getSubtree(@PathVariable("id") Integer id,
+                                                    @RequestParam(value = "depth", defaultValue = "2") int depth,
+                                                    WebRequest request) {
+        if (depth < 0) {
+            throw SkillServiceException.validationFailed("depth", "Depth must not be negative.");
+        }
+        TCategoryNode subtree = skillTreeSnapshotService.getSubtree(id, depth)
+                .orElseThrow(() -> SkillServiceException.categoryNotFound(id));
+        if (request.checkNotModified(skillTreeSnapshotService.getCatalogETag())) {
+            return null;
+        }
+        return ResponseEntity.ok(subtree);
+    }
+
     @ApiOperation(value = "Returns a category",
             notes = "Returns the category identifies by its unique qualifier",
             response = SkillCategory.class,
@@ -222,6 +265,23 @@ public class CategoryController {
         return ResponseEntity.ok(categoryService.moveCategory(toMove, newParent));
     }
 
+    @ApiOperation(value = "Reindexes the skills of a category",
+            notes = "Writes all skills in the category and in the categories below it to the search index again.",
+            response = Integer.class,
+            httpMethod = "POST",
+            produces = "application/json")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Skills reindexed, their number is returned in response."),
+            @ApiResponse(code = 404, message = "No category for provided <code>id</code> found"),
+    })
+    @PostMapping(value = "/{id}/lucene/index")
+    public ResponseEntity<Integer> reindexCategory(@PathVariable("id") Integer categoryId) {
+        SkillCategory skillCategory = getCategory(categoryId);
+        int reindexed = categoryService.reindexSubtree(skillCategory);
+        log.info("Reindexed " + reindexed + " skills below " + skillCategory.toString());
+        return ResponseEntity.ok(reindexed);
+    }
+
     /**
      * Adds the category identified by the given <code>id</code> to the list of blacklisted categories.
      * All child-categories will also be blacklisted.
@@ -250,7 +310,8 @@ public class CategoryController {
 
 
     /**
-     * Removes the category and all its child categories from the blacklist.
+     * Removes the category from the blacklist, and with it all child categories that are only blacklisted through it.
+     * A category below a blacklisted category can't be removed from the blacklist on its own.
      *
      * @param categoryId id
      * @return the category that was removed from the blacklist
@@ -264,13 +325,15 @@ public class CategoryController {
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Category successfully blacklisted and returned in response."),
             @ApiResponse(code = 404, message = "No category for provided <code>id</code> found"),
+            @ApiResponse(code = 409, message = "An ancestor of the category is blacklisted"),
     })
     @DeleteMapping(value = "/blacklist/{id}")
     @Transactional
     public ResponseEntity<SkillCategory> deleteFromBlackList(@PathVariable("id") Integer categoryId) {
         SkillCategory skillCategory = getCategory(categoryId);
         log.info("Whitelisting the category " + skillCategory.toString() + " and all child categories.");
-        categoryService.whitelist(skillCategory);
+        int affected = categoryService.whitelist(skillCategory);
+        log.info("Cleared the blacklist flag of " + affected + " categories.");
         return ResponseEntity.ok(skillCategory);
     }
 
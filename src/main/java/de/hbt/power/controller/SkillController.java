@@ -3,22 +3,43 @@ package de.hbt.power.controller;
 import de.hbt.power.exception.SkillServiceException;
 import de.hbt.power.model.Skill;
 import de.hbt.power.model.SkillCategory;
+import de.hbt.power.model.dto.IndexConsistencyReport;
+import de.hbt.power.model.dto.IndexSnapshotStatus;
+import de.hbt.power.model.dto.IndexStatistics;
+import de.hbt.power.model.dto.IndexStatus;
+import de.hbt.power.model.dto.SkillSearchBatchRequest;
+import de.hbt.power.model.dto.SkillSearchBatchResult;
+import de.hbt.power.model.dto.SkillSearchHit;
 import de.hbt.power.model.dto.TCategoryNode;
 import de.hbt.power.repo.SkillCategoryRepository;
 import de.hbt.power.repo.SkillRepository;
 import de.hbt.power.service.CategoryService;
+import de.hbt.power.service.IndexSnapshotService;
+import de.hbt.power.service.SearchIndexMaintenanceService;
+import de.hbt.power.service.SkillSearchQuery;
+import de.hbt.power.service.SkillSearchResult;
 import de.hbt.power.service.SkillSearcherService;
 import de.hbt.power.service.SkillService;
-import de.hbt.power.service.SkillTreeMappingService;
+import de.hbt.power.service.SkillTreeJsonWriter;
+import de.hbt.power.service.SkillTreeSnapshotService;
+import de.hbt.power.util.LocaleUtil;
 import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ResponseHeader;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import static de.hbt.power.exception.SkillServiceException.categoryNotFound;
 import static de.hbt.power.exception.SkillServiceException.skillNotFound;
@@ -36,6 +57,11 @@ public class SkillController {
 
     private static final Integer DEFAULT_MAX_RESULTS = 20;
 
+    /**
+     * Set to true on search responses whose search ran out of time and only contain the hits found until then
+     */
+    public static final String SEARCH_TRUNCATED_HEADER = "X-Search-Truncated";
+
     private final SkillRepository skillRepository;
 
     private final SkillCategoryRepository skillCategoryRepository;
@@ -46,19 +72,30 @@ public class SkillController {
 
     private final CategoryService categoryService;
 
-    private final SkillTreeMappingService skillTreeMappingService;
+    private final SkillTreeSnapshotService skillTreeSnapshotService;
+
+    private final SkillTreeJsonWriter skillTreeJsonWriter;
+
+    private final SearchIndexMaintenanceService searchIndexMaintenanceService;
+
+    private final IndexSnapshotService indexSnapshotService;
 
     @Autowired
     public SkillController(
             SkillRepository skillRepository,
             SkillCategoryRepository skillCategoryRepository,
-            SkillSearcherService skillSearcherService, SkillService skillService, CategoryService categoryService, SkillTreeMappingService skillTreeMappingService) {
+            SkillSearcherService skillSearcherService, SkillService skillService, CategoryService categoryService, SkillTreeSnapshotService skillTreeSnapshotService,
+            SkillTreeJsonWriter skillTreeJsonWriter, SearchIndexMaintenanceService searchIndexMaintenanceService,
+            IndexSnapshotService indexSnapshotService) {
         this.skillRepository = skillRepository;
         this.skillCategoryRepository = skillCategoryRepository;
         this.skillSearcherService = skillSearcherService;
         this.skillService = skillService;
         this.categoryService = categoryService;
-        this.skillTreeMappingService = skillTreeMappingService;
+        this.skillTreeSnapshotService = skillTreeSnapshotService;
+        this.skillTreeJsonWriter = skillTreeJsonWriter;
+        this.searchIndexMaintenanceService = searchIndexMaintenanceService;
+        this.indexSnapshotService = indexSnapshotService;
     }
 
     private Skill requireSkill(Integer id) {
@@ -71,10 +108,14 @@ public class SkillController {
                 .orElseThrow(() -> categoryNotFound(id));
     }
 
-    @ApiOperation(value = "Returns a skill by ID", response = Skill.class)
+    @ApiOperation(value = "Returns a skill by ID. Supports If-None-Match with an ETag of the skill.", response = Skill.class)
     @GetMapping("/{skillId}")
-    public ResponseEntity<Skill> getSkill(@PathVariable Integer skillId) {
-        return ResponseEntity.ok(requireSkill(skillId));
+    public ResponseEntity<Skill> getSkill(@PathVariable Integer skillId, WebRequest request) {
+        Skill skill = requireSkill(skillId);
+        if (request.checkNotModified(skillTreeSnapshotService.getSkillETag(skill))) {
+            return null;
+        }
+        return ResponseEntity.ok(skill);
     }
 
 
@@ -93,8 +134,12 @@ public class SkillController {
     public ResponseEntity<Skill> findSkillByQualifier(@RequestParam("qualifier") String qualifier) {
         return skillRepository.findOneByQualifier(qualifier)
                 .map((skill) -> {
-                    // Trick/Hack: ensure parent categories are loaded by hibernate (lazy) - kr
+                    // Ensure parent categories are loaded by hibernate (lazy); The ancestors are fetched with one query,
+                    // walking up the parents then only resolves them from the persistence context
                     SkillCategory cat = skill.getCategory();
+                    if (cat != null) {
+                        skillCategoryRepository.findAllById(cat.getAncestorIds());
+                    }
                     while (cat != null && cat.getCategory() != null) {
                         cat = cat.getCategory();
                     }
@@ -105,14 +150,96 @@ public class SkillController {
     }
 
 
-    @ApiOperation(value = "Fuzzy search for skill names", response = String.class, responseContainer = "List")
-    @GetMapping(value = "/search")
-    public ResponseEntity<List<String>> searchSkill(@RequestParam("searchterm") String searchTerm, @RequestParam Integer maxResults) {
-        if (maxResults == null) {
-            maxResults = DEFAULT_MAX_RESULTS;
+    @ApiOperation(value = "Fuzzy search for skill names",
+            notes = "If a category ID is given, only skills in that category or below it are found. Skills in " +
+                    "blacklisted categories are only found if <code>includeBlacklisted</code> is set.",
+            response = String.class, responseContainer = "List",
+            responseHeaders = @ResponseHeader(name = SEARCH_TRUNCATED_HEADER, response = Boolean.class,
+                    description = "True if the search ran out of time and only the hits found until then are returned"))
+    @GetMapping(value = "/search", params = "!lang")
+    public ResponseEntity<List<String>> searchSkill(@RequestParam("searchterm") String searchTerm, @RequestParam Integer maxResults,
+                                                    @RequestParam(required = false) Integer categoryId,
+                                                    @RequestParam(defaultValue = "false") boolean includeBlacklisted) {
+        SkillSearchResult result = skillSearcherService.searchWithStatus(
+                toSearchQuery(searchTerm, maxResults, null, categoryId, includeBlacklisted));
+        List<String> suggestions = result.getHits().stream()
+                .map(SkillSearchHit::getQualifier)
+                .collect(Collectors.toList());
+        return withTruncation(result).body(suggestions);
+    }
+
+    @ApiOperation(value = "Fuzzy search for skill names in a language",
+            notes = "Searches the skill names and the localized names in the given language (ISO 639-2, e.g. <code>deu</code>), " +
+                    "preferring the localized names. Returns each skill name together with its localized name. " +
+                    "If a category ID is given, only skills in that category or below it are found. Skills in " +
+                    "blacklisted categories are only found if <code>includeBlacklisted</code> is set.",
+            response = SkillSearchHit.class, responseContainer = "List",
+            responseHeaders = @ResponseHeader(name = SEARCH_TRUNCATED_HEADER, response = Boolean.class,
+                    description = "True if the search ran out of time and only the hits found until then are returned"))
+    @GetMapping(value = "/search", params = "lang")
+    public ResponseEntity<List<SkillSearchHit>> searchSkillInLanguage(@RequestParam("searchterm") String searchTerm,
+                                                                      @RequestParam(required = false) Integer maxResults,
+                                                                      @RequestParam("lang") String language,
+                                                                      @RequestParam(required = false) Integer categoryId,
+                                                                      @RequestParam(defaultValue = "false") boolean includeBlacklisted) {
+        SkillSearchResult result = skillSearcherService.searchWithStatus(
+                toSearchQuery(searchTerm, maxResults, language, categoryId, includeBlacklisted));
+        return withTruncation(result).body(result.getHits());
+    }
+
+    @ApiOperation(value = "Fuzzy search for skills",
+            notes = "Returns the ID, name, score, category and category path of each found skill, and the localized name " +
+                    "in the given language (ISO 639-2, e.g. <code>deu</code>) or the localized name that matched the " +
+                    "search term. If a category ID is given, only skills in that category or below it are found. " +
+                    "Skills in blacklisted categories are only found if <code>includeBlacklisted</code> is set.",
+            response = SkillSearchHit.class, responseContainer = "List",
+            responseHeaders = @ResponseHeader(name = SEARCH_TRUNCATED_HEADER, response = Boolean.class,
+                    description = "True if the search ran out of time and only the hits found until then are returned"))
+    @GetMapping(value = "/search/hits")
+    public ResponseEntity<List<SkillSearchHit>> searchSkillHits(@RequestParam("searchterm") String searchTerm,
+                                                                @RequestParam(required = false) Integer maxResults,
+                                                                @RequestParam(value = "lang", required = false) String language,
+                                                                @RequestParam(required = false) Integer categoryId,
+                                                                @RequestParam(defaultValue = "false") boolean includeBlacklisted) {
+        SkillSearchResult result = skillSearcherService.searchWithStatus(
+                toSearchQuery(searchTerm, maxResults, language, categoryId, includeBlacklisted));
+        return withTruncation(result).body(result.getHits());
+    }
+
+    @ApiOperation(value = "Fuzzy search for several skill names at once",
+            notes = "Searches each term like <code>/skill/search/hits</code>, with the same options for all terms. The " +
+                    "searches run in parallel within a time budget; Terms whose search did not finish in time are " +
+                    "returned without hits and with <code>complete</code> set to false; Terms whose search ran out of " +
+                    "its own time budget are returned with the hits found until then and <code>truncated</code> set to true.",
+            response = SkillSearchBatchResult.class, responseContainer = "List")
+    @PostMapping(value = "/search/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<SkillSearchBatchResult>> searchSkillBatch(@RequestBody SkillSearchBatchRequest request) {
+        if (request.getTerms() == null) {
+            throw SkillServiceException.validationFailed("terms", "Terms are missing.");
+        }
+        List<SkillSearchQuery> queries = request.getTerms().stream()
+                .map(term -> toSearchQuery(term, request.getMaxResults(), request.getLang(), request.getCategoryId(),
+                        request.isIncludeBlacklisted()))
+                .collect(Collectors.toList());
+        return ResponseEntity.ok(skillSearcherService.searchBatch(queries));
+    }
+
+    private static ResponseEntity.BodyBuilder withTruncation(SkillSearchResult result) {
+        return ResponseEntity.ok().header(SEARCH_TRUNCATED_HEADER, String.valueOf(result.isTruncated()));
+    }
+
+    private SkillSearchQuery toSearchQuery(String searchTerm, Integer maxResults, String language, Integer categoryId,
+                                           boolean includeBlacklisted) {
+        if (language != null && !LocaleUtil.getLocaleFromISO639_2(language).isPresent()) {
+            throw SkillServiceException.validationFailed("lang", language + " is not a valid ISO 639-2 code");
         }
-        List<String> suggestions = skillSearcherService.searchSkill(searchTerm, maxResults);
-        return ResponseEntity.ok(suggestions);
+        return SkillSearchQuery.builder()
+                .term(searchTerm)
+                .maxResults(maxResults == null ? DEFAULT_MAX_RESULTS : maxResults)
+                .locale(language)
+                .categoryId(categoryId)
+                .includeBlacklisted(includeBlacklisted)
+                .build();
     }
 
 
@@ -133,11 +260,67 @@ public class SkillController {
     }
 
 
-    @ApiOperation(value = "Rebuilds the lucene index")
+    @ApiOperation(value = "Starts rebuilding the lucene index, unless a rebuild is already running. Returns the status of the running rebuild.",
+            response = IndexStatus.class)
     @PostMapping("/lucene/index")
-    public void buildIndex() {
+    public ResponseEntity<IndexStatus> buildIndex() {
         log.info("Rebuilding Lucene index.");
-        skillSearcherService.buildSearchIndex();
+        return ResponseEntity.accepted().body(skillSearcherService.buildSearchIndex());
+    }
+
+    @ApiOperation(value = "Returns the progress of the current or last rebuild of the lucene index", response = IndexStatus.class)
+    @GetMapping("/lucene/index")
+    public ResponseEntity<IndexStatus> getIndexStatus() {
+        return ResponseEntity.ok(skillSearcherService.getSearchIndexStatus());
+    }
+
+    @ApiOperation(value = "Returns the number of segments, deleted documents and size of each lucene index",
+            response = IndexStatistics.class, responseContainer = "List")
+    @GetMapping("/lucene/index/segments")
+    public ResponseEntity<List<IndexStatistics>> getIndexSegments() {
+        return ResponseEntity.ok(searchIndexMaintenanceService.getStatistics());
+    }
+
+    @ApiOperation(value = "Merges each lucene index into a single segment, removing deleted documents",
+            notes = "Runs until the indexes are merged; Writes to the index wait meanwhile. Returns the segments after merging.",
+            response = IndexStatistics.class, responseContainer = "List")
+    @PostMapping("/lucene/index/merge")
+    public ResponseEntity<List<IndexStatistics>> mergeIndex() {
+        return ResponseEntity.ok(searchIndexMaintenanceService.merge());
+    }
+
+    @ApiOperation(value = "Compares the skills in the database with the lucene index",
+            notes = "Reports skills missing in the index, skills no longer in the database and skills indexed more than " +
+                    "once. Unless <code>repair</code> is false, only these skills are written to the index again.",
+            response = IndexConsistencyReport.class)
+    @PostMapping("/lucene/index/check")
+    public ResponseEntity<IndexConsistencyReport> checkIndex(@RequestParam(defaultValue = "true") boolean repair) {
+        return ResponseEntity.ok(searchIndexMaintenanceService.checkConsistency(repair));
+    }
+
+    @ApiOperation(value = "Returns the latest lucene index snapshot in the shared directory and the one this instance uses",
+            response = IndexSnapshotStatus.class)
+    @GetMapping("/lucene/index/snapshot")
+    public ResponseEntity<IndexSnapshotStatus> getIndexSnapshot() {
+        return ResponseEntity.ok(indexSnapshotService.getStatus());
+    }
+
+    @ApiOperation(value = "Publishes the lucene index of this instance as the latest snapshot in the shared directory",
+            notes = "The other instances install it when they poll the shared directory next. Writes to the index wait " +
+                    "while it is copied.",
+            response = IndexSnapshotStatus.class)
+    @PostMapping("/lucene/index/snapshot")
+    public ResponseEntity<IndexSnapshotStatus> publishIndexSnapshot() {
+        return ResponseEntity.ok(indexSnapshotService.publish());
+    }
+
+    @ApiOperation(value = "Writes a skill to the lucene index again")
+    @PostMapping("/{id}/lucene/index")
+    public ResponseEntity<Void> reindexSkill(@PathVariable("id") Integer skillId) {
+        Skill skill = requireSkill(skillId);
+        log.info("Reindexing " + skill);
+        skillSearcherService.reindexSkills(Collections.singleton(skill.getId()));
+        return ResponseEntity.noContent().build();
     }
 
 
@@ -161,7 +344,7 @@ public class SkillController {
     public ResponseEntity<Void> deleteSkill(@PathVariable("id") Integer skillId) {
         skillRepository.findById(skillId)
                 .map(peek(s -> log.info("Deleting skill " + s)))
-                .ifPresent(skillRepository::delete);
+                .ifPresent(skillService::deleteSkill);
         return ResponseEntity.noContent().build();
     }
 
@@ -201,9 +384,25 @@ public class SkillController {
         return ResponseEntity.ok().build();
     }
 
-    @ApiOperation(value = "Returns a model of the skill tree. Returned value is the root node.", response = TCategoryNode.class)
+    @ApiOperation(value = "Returns a model of the skill tree. Returned value is the root node. " +
+            "Supports If-None-Match with the catalog version ETag.", response = TCategoryNode.class)
     @GetMapping("/tree")
-    public ResponseEntity<TCategoryNode> getTree() {
-        return ResponseEntity.ok(skillTreeMappingService.buildSkillTree());
+    public ResponseEntity<TCategoryNode> getTree(WebRequest request) {
+        if (request.checkNotModified(skillTreeSnapshotService.getCatalogETag())) {
+            return null;
+        }
+        return ResponseEntity.ok(skillTreeSnapshotService.getTree());
+    }
+
+    @ApiOperation(value = "Streams the skill tree. The response has the same structure as the non-streaming tree, but " +
+            "is written directly while walking the tree instead of building the node graph first.", response = TCategoryNode.class)
+    @GetMapping(value = "/tree", params = "streaming=true")
+    public void streamTree(WebRequest request, HttpServletResponse response) throws IOException {
+        if (request.checkNotModified(skillTreeSnapshotService.getCatalogETag())) {
+            return;
+        }
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        skillTreeJsonWriter.write(skillTreeSnapshotService.getSnapshot(), response.getOutputStream());
     }
 }
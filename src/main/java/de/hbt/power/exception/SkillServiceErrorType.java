@@ -6,10 +6,13 @@ public enum SkillServiceErrorType {
     ERR_CATEGORY_MOVE_FORBIDDEN(HttpStatus.CONFLICT),
     ERR_CATEGORY_DELETE_FORBIDDEN(HttpStatus.CONFLICT),
     ERR_CATEGORY_ALREADY_EXISTS(HttpStatus.CONFLICT),
+    ERR_CATEGORY_BLACKLISTED_BY_ANCESTOR(HttpStatus.CONFLICT),
     ERR_INVALID_CATEGORY_QUALIFIER(HttpStatus.BAD_REQUEST),
     ERR_CATEGORY_NOT_FOUND(HttpStatus.NOT_FOUND),
     ERR_SKILL_NOT_FOUND(HttpStatus.NOT_FOUND),
     ERR_SKILL_ALREADY_EXISTS(HttpStatus.CONFLICT),
+    ERR_INDEX_SNAPSHOTS_DISABLED(HttpStatus.CONFLICT),
+    ERR_INDEX_REBUILD_RUNNING(HttpStatus.CONFLICT),
     ERR_VALIDATION_FAILED(HttpStatus.BAD_REQUEST);
 
     private final HttpStatus status;
@@ -77,4 +77,20 @@ public class SkillServiceException extends RuntimeException {
         return new SkillServiceException(ERR_CATEGORY_DELETE_FORBIDDEN, message, category.getId());
     }
 
+    public static SkillServiceException categoryBlacklistedByAncestor(SkillCategory category, SkillCategory ancestor) {
+        String message = "Category " + category.getQualifier() + " is blacklisted through its ancestor "
+                + ancestor.getQualifier() + " and can't be whitelisted on its own.";
+        return new SkillServiceException(ERR_CATEGORY_BLACKLISTED_BY_ANCESTOR, message, category.getId());
+    }
+
+    public static SkillServiceException indexSnapshotsDisabled() {
+        String message = "No shared directory for search index snapshots is configured.";
+        return new SkillServiceException(ERR_INDEX_SNAPSHOTS_DISABLED, message, null);
+    }
+
+    public static SkillServiceException indexRebuildRunning() {
+        String message = "The search index is being rebuilt.";
+        return new SkillServiceException(ERR_INDEX_REBUILD_RUNNING, message, null);
+    }
+
 }
@@ -1,5 +1,6 @@
 package de.hbt.power.model;
 
+import de.hbt.power.service.SearchCacheInvalidationListener;
 import lombok.Data;
 import org.hibernate.search.annotations.Index;
 import org.hibernate.search.annotations.*;
@@ -12,6 +13,7 @@ import java.util.List;
  * Localization entity that may be attached to any entity that has localizations.
  */
 @Entity
+@EntityListeners(SearchCacheInvalidationListener.class)
 @Table(name = "LOCALIZED_QUALIFIER")
 @Data
 @Indexed
@@ -27,14 +29,17 @@ public class LocalizedQualifier {
      * </p>
      */
     @Column(name = "LOCALE")
-    @Field(index = Index.YES, analyze = Analyze.YES, store = Store.YES)
+    @Field(index = Index.YES, analyze = Analyze.YES, store = Store.NO)
     private String locale;
 
     /**
      * The localized qualifier. UTF-8 encoding.
      */
     @Column(name = "QUALIFIER")
-    @Field(index = Index.YES, analyze = Analyze.YES, store = Store.YES)
+    @Fields({
+            @Field(index = Index.YES, analyze = Analyze.YES, store = Store.NO),
+            @Field(name = Skill.PREFIX_FIELD, analyzer = @Analyzer(definition = Skill.PREFIX_ANALYZER))
+    })
     private String qualifier;
 
     @ManyToMany
@@ -57,4 +62,16 @@ public class LocalizedQualifier {
 
     public LocalizedQualifier() {
     }
+
+    /**
+     * Creates a detached copy of this qualifier that does not reference any of the owning entities.
+     *
+     * @return the copy
+     */
+    public LocalizedQualifier copy() {
+        LocalizedQualifier copy = new LocalizedQualifier(locale, qualifier);
+        copy.setId(id);
+        copy.setSkills(null);
+        return copy;
+    }
 }
@@ -1,10 +1,19 @@
 package de.hbt.power.model;
 
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import de.hbt.power.model.search.CategoryAncestorsBridge;
+import de.hbt.power.model.search.SkillDocValuesBridge;
+import de.hbt.power.service.SearchCacheInvalidationListener;
 import lombok.*;
+import org.apache.lucene.analysis.core.LowerCaseFilterFactory;
+import org.apache.lucene.analysis.miscellaneous.ASCIIFoldingFilterFactory;
+import org.apache.lucene.analysis.ngram.EdgeNGramFilterFactory;
+import org.apache.lucene.analysis.standard.StandardTokenizerFactory;
 import org.hibernate.annotations.Fetch;
 import org.hibernate.search.annotations.Index;
+import org.hibernate.search.annotations.Parameter;
 import org.hibernate.search.annotations.*;
 
 import javax.persistence.*;
@@ -13,6 +22,7 @@ import java.util.Locale;
 import java.util.Set;
 
 @Entity
+@EntityListeners(SearchCacheInvalidationListener.class)
 @Table(name = "SKILL")
 @Builder(toBuilder = true)
 @NoArgsConstructor
@@ -20,10 +30,49 @@ import java.util.Set;
 @Getter
 @Setter
 @Indexed
+@ClassBridge(name = "values", impl = SkillDocValuesBridge.class)
+@AnalyzerDefs({
+        // Indexes all prefixes of every word, so prefix searches become plain term lookups
+        @AnalyzerDef(name = Skill.PREFIX_ANALYZER,
+                tokenizer = @TokenizerDef(factory = StandardTokenizerFactory.class),
+                filters = {
+                        @TokenFilterDef(factory = LowerCaseFilterFactory.class),
+                        @TokenFilterDef(factory = ASCIIFoldingFilterFactory.class),
+                        @TokenFilterDef(factory = EdgeNGramFilterFactory.class, params = {
+                                @Parameter(name = "minGramSize", value = "1"),
+                                @Parameter(name = "maxGramSize", value = "" + Skill.MAX_PREFIX_LENGTH)
+                        })
+                }),
+        // Query side of the prefix fields: the same normalization, without the n-grams
+        @AnalyzerDef(name = Skill.PREFIX_SEARCH_ANALYZER,
+                tokenizer = @TokenizerDef(factory = StandardTokenizerFactory.class),
+                filters = {
+                        @TokenFilterDef(factory = LowerCaseFilterFactory.class),
+                        @TokenFilterDef(factory = ASCIIFoldingFilterFactory.class)
+                })
+})
 // Because we are using Entities as DTOs, we need to exclude these
 @JsonIgnoreProperties({"hibernateLazyInitializer","handler"})
 public class Skill {
 
+    public static final String PREFIX_ANALYZER = "skillPrefix";
+
+    public static final String PREFIX_SEARCH_ANALYZER = "skillPrefixSearch";
+
+    /**
+     * Longest indexed prefix of a word; Longer search terms are only found by the fuzzy fallback
+     */
+    public static final int MAX_PREFIX_LENGTH = 20;
+
+    /**
+     * Name of the fields that hold the edge n-grams of the qualifiers
+     */
+    public static final String PREFIX_FIELD = "qualifierPrefix";
+
+    /**
+     * IDs of the category of the skill and of all categories above it
+     */
+    public static final String CATEGORY_ANCESTOR_IDS_FIELD = "categoryAncestorIds";
 
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -31,10 +80,15 @@ public class Skill {
 
     @ManyToOne()
     @JoinColumn(name = "category_id")
+    @Field(name = CATEGORY_ANCESTOR_IDS_FIELD, analyze = Analyze.NO, store = Store.NO,
+            bridge = @FieldBridge(impl = CategoryAncestorsBridge.class))
     private SkillCategory category;
 
     @Column(name = "QUALIFIER")
-    @Field(index = Index.YES, analyze = Analyze.YES, store = Store.YES)
+    @Fields({
+            @Field(index = Index.YES, analyze = Analyze.YES, store = Store.NO),
+            @Field(name = PREFIX_FIELD, analyzer = @Analyzer(definition = PREFIX_ANALYZER))
+    })
     private String qualifier;
 
     @ManyToMany(cascade = CascadeType.ALL)
@@ -50,6 +104,15 @@ public class Skill {
     @ElementCollection(fetch = FetchType.EAGER)
     private Set<String> versions = new HashSet<>();
 
+    /**
+     * Epoch milliseconds of the last change to the indexed content of this skill: its qualifier, localized qualifiers
+     * or the ancestors of its category. <code>null</code> for skills that were not changed since the column was
+     * introduced. Used to update the search index after installing a snapshot that is older than the database.
+     */
+    @Column(name = "modified_at")
+    @JsonIgnore
+    private Long modifiedAt;
+
 
     public Skill(String qualifier, Set<LocalizedQualifier> qualifiers, SkillCategory category) {
         this.qualifier = qualifier;
@@ -65,10 +128,22 @@ public class Skill {
 
     public void addLocale(Locale locale, String qualifier) {
         this.qualifiers.add(new LocalizedQualifier(locale.getISO3Language(), qualifier));
+        touch();
     }
 
     public void removeLocale(Locale locale) {
         this.qualifiers.removeIf(localizedQualifier -> localizedQualifier.getLocale().equals(locale.getISO3Language()));
+        touch();
+    }
+
+    /**
+     * Sets the modification time to now. Changes of the localized qualifiers don't update the skill itself, so they
+     * touch it explicitly.
+     */
+    @PrePersist
+    @PreUpdate
+    public void touch() {
+        this.modifiedAt = System.currentTimeMillis();
     }
 
     @Override
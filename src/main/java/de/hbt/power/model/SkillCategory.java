@@ -1,15 +1,19 @@
 package de.hbt.power.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import de.hbt.power.service.EffectiveBlacklistListener;
 import lombok.*;
 
 import javax.persistence.*;
-import java.util.HashSet;
-import java.util.Locale;
-import java.util.Set;
+import javax.persistence.Index;
+import java.util.*;
+import java.util.stream.Collectors;
 
 @Entity
-@Table(name = "SKILL_CATEGORY")
+@EntityListeners(EffectiveBlacklistListener.class)
+@Table(name = "SKILL_CATEGORY", indexes = @Index(name = "IDX_SKILL_CATEGORY_ANCESTOR_PATH", columnList = "ancestor_path"))
 @Builder(toBuilder = true)
 @NoArgsConstructor
 @AllArgsConstructor
@@ -38,7 +42,13 @@ public class SkillCategory {
     @JoinColumn(name = "category_id")
     private SkillCategory category;
 
+    /**
+     * Whether this category itself is blacklisted. All categories below a blacklisted category are blacklisted as
+     * well without storing the flag, see {@link #isEffectivelyBlacklisted()}.
+     */
     @Column(name = "is_blacklisted", nullable = false)
+    @Getter(onMethod_ = @JsonIgnore)
+    @Setter(onMethod_ = @JsonProperty("blacklisted"))
     private boolean blacklisted = false;
 
     @Column(name = "is_custom", nullable = false)
@@ -47,6 +57,27 @@ public class SkillCategory {
     @Column(name = "is_display", nullable = false)
     private boolean display = false;
 
+    /**
+     * Materialized path of the IDs of all ancestors, from the top level category down to the direct parent, e.g.
+     * <code>/1/5/</code>. Top level categories have the path <code>/</code>.
+     * <p>
+     * Descendants of a category are all categories whose path starts with the path of the category followed by its
+     * ID. The path is initialized on persist and maintained by {@link de.hbt.power.service.CategoryService}.
+     * </p>
+     */
+    @Column(name = "ancestor_path")
+    @JsonIgnore
+    private String path;
+
+    /**
+     * Whether one of the ancestors is blacklisted, as derived from the skill tree when this category was loaded.
+     * <code>null</code> if unknown.
+     */
+    @Transient
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    private Boolean ancestorBlacklisted;
+
     public SkillCategory(String qualifier, Set<LocalizedQualifier> qualifiers, SkillCategory category) {
         this.qualifier = qualifier;
         this.qualifiers = qualifiers;
@@ -54,11 +85,11 @@ public class SkillCategory {
     }
 
     public static SkillCategory custom(String qualifier) {
-        return new SkillCategory(null, qualifier, new HashSet<>(), null, false, true, false);
+        return new SkillCategory(null, qualifier, new HashSet<>(), null, false, true, false, null, null);
     }
 
     public static SkillCategory of(String qualifier) {
-        return new SkillCategory(null, qualifier, new HashSet<>(), null, false, false, false);
+        return new SkillCategory(null, qualifier, new HashSet<>(), null, false, false, false, null, null);
     }
 
     public static SkillCategory of(String qualifier, SkillCategory parent) {
@@ -76,7 +107,55 @@ public class SkillCategory {
         qualifiers.removeIf(localizedQualifier -> localizedQualifier.getLocale().equals(locale.getISO3Language()));
     }
 
+    /**
+     * @return <code>true</code> if this category or one of its ancestors is blacklisted
+     */
+    @JsonProperty("blacklisted")
+    public boolean isEffectivelyBlacklisted() {
+        if (blacklisted) {
+            return true;
+        }
+        if (ancestorBlacklisted != null) {
+            return ancestorBlacklisted;
+        }
+        return category != null && category.isEffectivelyBlacklisted();
+    }
+
+    /**
+     * @return the path that children of this category have, or <code>null</code> if this category has no path yet.
+     */
+    @JsonIgnore
+    public String getChildPath() {
+        return path == null || id == null ? null : path + id + "/";
+    }
+
+    /**
+     * Sets the path according to the current parent.
+     */
+    @PrePersist
+    public void updatePath() {
+        this.path = category == null ? "/" : category.getChildPath();
+    }
+
+    /**
+     * @return the IDs of all ancestors, top level category first, as stored in the path.
+     */
+    @JsonIgnore
+    public List<Integer> getAncestorIds() {
+        if (path == null) {
+            return Collections.emptyList();
+        }
+        return Arrays.stream(path.split("/"))
+                .filter(id -> !id.isEmpty())
+                .map(Integer::valueOf)
+                .collect(Collectors.toList());
+    }
+
     public boolean hasTransitiveParent(SkillCategory skillCategory) {
+        if (path != null && skillCategory.getId() != null) {
+            return getAncestorIds().contains(skillCategory.getId());
+        }
+        // No path yet; Walk up the parents
         // Has no parent; Termiante recursion, not found
         if (this.category == null) {
             return false;
@@ -0,0 +1,37 @@
+package de.hbt.power.model.dto;
+
+import lombok.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Differences between the skills in the database and the skill documents in the search index.
+ */
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class IndexConsistencyReport {
+    private long databaseSkills;
+    private long indexedDocuments;
+    /**
+     * Skills that are not in the index
+     */
+    @Builder.Default
+    private List<Integer> missing = new ArrayList<>();
+    /**
+     * Skills that are in the index, but no longer in the database
+     */
+    @Builder.Default
+    private List<Integer> stale = new ArrayList<>();
+    /**
+     * Skills that are in the index more than once
+     */
+    @Builder.Default
+    private List<Integer> duplicated = new ArrayList<>();
+    /**
+     * Number of skills that were written to or removed from the index again; 0 if the differences were only reported
+     */
+    private int repaired;
+}
@@ -0,0 +1,24 @@
+package de.hbt.power.model.dto;
+
+import lombok.*;
+
+/**
+ * Snapshots of the search index in the shared directory. Versions are the epoch milliseconds of their publication;
+ * 0 if there is none.
+ */
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class IndexSnapshotStatus {
+    private boolean enabled;
+    private String directory;
+    /**
+     * The snapshot other instances install
+     */
+    private long latestVersion;
+    /**
+     * The snapshot this instance published or installed last
+     */
+    private long currentVersion;
+}
@@ -0,0 +1,22 @@
+package de.hbt.power.model.dto;
+
+import lombok.*;
+
+/**
+ * Segments of the last commit of one index of the search index.
+ */
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class IndexStatistics {
+    private String indexName;
+    private int segmentCount;
+    /**
+     * Documents including the deleted ones, which are only removed when their segments are merged
+     */
+    private long maxDocuments;
+    private long deletedDocuments;
+    private double deletedRatio;
+    private long sizeInBytes;
+}
@@ -0,0 +1,40 @@
+package de.hbt.power.model.dto;
+
+import lombok.*;
+
+/**
+ * Progress of the last rebuild of the search index. Times are epoch milliseconds.
+ */
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class IndexStatus {
+
+    public enum State {
+        /**
+         * No rebuild was started since this instance was started
+         */
+        IDLE,
+        RUNNING,
+        COMPLETED,
+        FAILED
+    }
+
+    @Builder.Default
+    private State state = State.IDLE;
+    private Long startedAt;
+    private Long finishedAt;
+    @Builder.Default
+    private long documentsTotal = 0;
+    @Builder.Default
+    private long documentsProcessed = 0;
+    @Builder.Default
+    private double documentsPerSecond = 0;
+    /**
+     * Estimated seconds until the rebuild is finished; <code>null</code> if it is not running or nothing was
+     * processed yet
+     */
+    private Long etaSeconds;
+    private String error;
+}
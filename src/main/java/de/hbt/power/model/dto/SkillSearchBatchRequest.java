@@ -0,0 +1,29 @@
+package de.hbt.power.model.dto;
+
+import lombok.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Several skill searches with the same options, e.g. for all skill names found in an imported CV.
+ */
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class SkillSearchBatchRequest {
+    @Builder.Default
+    private List<String> terms = new ArrayList<>();
+    /**
+     * Maximum number of hits per term
+     */
+    private Integer maxResults;
+    /**
+     * ISO 639-2 code of the language to prefer, e.g. <code>deu</code>
+     */
+    private String lang;
+    private Integer categoryId;
+    @Builder.Default
+    private boolean includeBlacklisted = false;
+}
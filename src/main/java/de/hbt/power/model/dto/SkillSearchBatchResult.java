@@ -0,0 +1,31 @@
+package de.hbt.power.model.dto;
+
+import lombok.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The hits of one term of a batch search.
+ */
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class SkillSearchBatchResult {
+    private String term;
+    @Builder.Default
+    private List<SkillSearchHit> hits = new ArrayList<>();
+    /**
+     * <code>false</code> if the search of this term did not finish within the time budget of the batch; The hits are
+     * empty then.
+     */
+    @Builder.Default
+    private boolean complete = true;
+    /**
+     * <code>true</code> if the search of this term ran out of its own time budget; The hits are the best ones found
+     * until then.
+     */
+    @Builder.Default
+    private boolean truncated = false;
+}
@@ -0,0 +1,32 @@
+package de.hbt.power.model.dto;
+
+import lombok.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Skill found by a search. The names are read from the search index, the category path from the skill tree
+ * snapshot.
+ */
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class SkillSearchHit {
+    private Integer id;
+    private String qualifier;
+    /**
+     * Qualifier in the requested language, or the localized qualifier the search term matched if no language was
+     * requested; <code>null</code> if there is none
+     */
+    private String localizedQualifier;
+    private float score;
+    private Integer categoryId;
+    /**
+     * Qualifiers of the category of the skill and its ancestors, top level category first; Empty for skills without
+     * category
+     */
+    @Builder.Default
+    private List<String> categoryPath = new ArrayList<>();
+}
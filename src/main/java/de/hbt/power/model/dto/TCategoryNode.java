@@ -1,25 +1,45 @@
 package de.hbt.power.model.dto;
 
 import de.hbt.power.model.LocalizedQualifier;
-import lombok.AllArgsConstructor;
-import lombok.Builder;
-import lombok.Data;
-import lombok.NoArgsConstructor;
+import lombok.*;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
+/**
+ * Category node of the skill tree. Nodes are identified by their ID only, so adding a node to a collection never
+ * has to look at its subtree. Children are kept in tree order (by qualifier, then ID).
+ * <p>
+ * The child counts always reflect the full tree, even if a subtree was cut off at a certain depth and the child
+ * lists are left empty.
+ * </p>
+ */
 @Builder(toBuilder = true)
 @AllArgsConstructor
 @NoArgsConstructor
 @Data
+@EqualsAndHashCode(onlyExplicitlyIncluded = true)
 public class TCategoryNode {
+    @EqualsAndHashCode.Include
     private Integer id;
+    @Builder.Default
     private String qualifier = "";
+    @Builder.Default
     private boolean blacklisted = false;
+    @Builder.Default
     private boolean custom = false;
+    @Builder.Default
     private boolean display = false;
+    @Builder.Default
     private Set<LocalizedQualifier> qualifiers = new HashSet<>();
-    private Set<TCategoryNode> childCategories = new HashSet<>();
-    private Set<TSkillNode> childSkills = new HashSet<>();
+    @Builder.Default
+    private List<TCategoryNode> childCategories = new ArrayList<>();
+    @Builder.Default
+    private List<TSkillNode> childSkills = new ArrayList<>();
+    @Builder.Default
+    private int childCategoryCount = 0;
+    @Builder.Default
+    private int childSkillCount = 0;
 }
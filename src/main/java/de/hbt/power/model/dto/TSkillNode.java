@@ -1,22 +1,27 @@
 package de.hbt.power.model.dto;
 
 import de.hbt.power.model.LocalizedQualifier;
-import lombok.AllArgsConstructor;
-import lombok.Builder;
-import lombok.Data;
-import lombok.NoArgsConstructor;
+import lombok.*;
 
 import java.util.HashSet;
 import java.util.Set;
 
+/**
+ * Skill node of the skill tree, identified by its ID only.
+ */
 @Builder(toBuilder = true)
 @Data
+@EqualsAndHashCode(onlyExplicitlyIncluded = true)
 @AllArgsConstructor
 @NoArgsConstructor
 public class TSkillNode {
+    @EqualsAndHashCode.Include
     private Integer id;
     private String qualifier;
+    @Builder.Default
     private Set<LocalizedQualifier> qualifiers = new HashSet<>();
+    @Builder.Default
     private Set<String> versions = new HashSet<>();
+    @Builder.Default
     private boolean custom = false;
 }
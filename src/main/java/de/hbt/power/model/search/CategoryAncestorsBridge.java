@@ -0,0 +1,29 @@
+package de.hbt.power.model.search;
+
+import de.hbt.power.model.SkillCategory;
+import org.apache.lucene.document.Document;
+import org.hibernate.search.bridge.FieldBridge;
+import org.hibernate.search.bridge.LuceneOptions;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Indexes the IDs of the category of a skill and of all categories above it, so searches can be restricted to the
+ * skills below a category with a single term.
+ * <p>
+ * The IDs are taken from the parents instead of the materialized path, which is updated with bulk statements and may
+ * be stale in the current persistence context.
+ * </p>
+ */
+public class CategoryAncestorsBridge implements FieldBridge {
+
+    @Override
+    public void set(String name, Object value, Document document, LuceneOptions luceneOptions) {
+        Set<Integer> visited = new HashSet<>();
+        for (SkillCategory category = (SkillCategory) value; category != null && category.getId() != null
+                && visited.add(category.getId()); category = category.getCategory()) {
+            luceneOptions.addFieldToDocument(name, String.valueOf(category.getId()), document);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package de.hbt.power.model.search;
+
+import de.hbt.power.model.LocalizedQualifier;
+import de.hbt.power.model.Skill;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.util.BytesRef;
+import org.hibernate.search.bridge.FieldBridge;
+import org.hibernate.search.bridge.LuceneOptions;
+
+/**
+ * Writes the values that skill searches return as doc values, so search hits are read column-wise instead of from the
+ * compressed stored fields. The qualifier can be used for sorting as well.
+ */
+public class SkillDocValuesBridge implements FieldBridge {
+
+    public static final String ID_FIELD = "values.id";
+
+    public static final String QUALIFIER_FIELD = "values.qualifier";
+
+    public static final String CATEGORY_ID_FIELD = "values.categoryId";
+
+    /**
+     * Locale and qualifier of each localized qualifier, separated by {@link #LOCALE_SEPARATOR}, so they stay paired
+     */
+    public static final String LOCALIZED_QUALIFIERS_FIELD = "values.localizedQualifiers";
+
+    public static final char LOCALE_SEPARATOR = '\u001f';
+
+    @Override
+    public void set(String name, Object value, Document document, LuceneOptions luceneOptions) {
+        Skill skill = (Skill) value;
+        if (skill.getId() != null) {
+            document.add(new NumericDocValuesField(ID_FIELD, skill.getId()));
+        }
+        if (skill.getQualifier() != null) {
+            document.add(new SortedDocValuesField(QUALIFIER_FIELD, new BytesRef(skill.getQualifier())));
+        }
+        if (skill.getCategory() != null && skill.getCategory().getId() != null) {
+            document.add(new NumericDocValuesField(CATEGORY_ID_FIELD, skill.getCategory().getId()));
+        }
+        for (LocalizedQualifier localized : skill.getQualifiers()) {
+            if (localized.getLocale() != null && localized.getQualifier() != null) {
+                document.add(new SortedSetDocValuesField(LOCALIZED_QUALIFIERS_FIELD,
+                        new BytesRef(localized.getLocale() + LOCALE_SEPARATOR + localized.getQualifier())));
+            }
+        }
+    }
+}
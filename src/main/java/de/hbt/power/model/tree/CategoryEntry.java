@@ -0,0 +1,36 @@
+package de.hbt.power.model.tree;
+
+import de.hbt.power.model.LocalizedQualifier;
+import de.hbt.power.model.SkillCategory;
+import lombok.Value;
+
+import java.util.Set;
+
+import static java.util.stream.Collectors.toUnmodifiableSet;
+
+/**
+ * Immutable, detached copy of a {@link SkillCategory} as it is held by a {@link SkillTreeSnapshot}.
+ */
+@Value
+public class CategoryEntry {
+    private Integer id;
+    private Integer parentId;
+    private String qualifier;
+    private boolean blacklisted;
+    private boolean custom;
+    private boolean display;
+    private Set<LocalizedQualifier> qualifiers;
+
+    public CategoryEntry withBlacklisted(boolean blacklisted) {
+        return new CategoryEntry(id, parentId, qualifier, blacklisted, custom, display, qualifiers);
+    }
+
+    public static CategoryEntry of(SkillCategory category) {
+        Integer parentId = category.getCategory() == null ? null : category.getCategory().getId();
+        Set<LocalizedQualifier> qualifiers = category.getQualifiers().stream()
+                .map(LocalizedQualifier::copy)
+                .collect(toUnmodifiableSet());
+        return new CategoryEntry(category.getId(), parentId, category.getQualifier(), category.isBlacklisted(),
+                category.isCustom(), category.isDisplay(), qualifiers);
+    }
+}
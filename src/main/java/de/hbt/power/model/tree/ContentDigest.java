@@ -0,0 +1,76 @@
+package de.hbt.power.model.tree;
+
+import de.hbt.power.model.LocalizedQualifier;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Hash over the content of tree entries, e.g. for ETags. Entries with the same content have the same hash, on any
+ * instance of the service.
+ */
+final class ContentDigest {
+
+    private static final Comparator<LocalizedQualifier> LOCALIZED_QUALIFIER_ORDER = Comparator
+            .comparingInt(LocalizedQualifier::getId);
+
+    /**
+     * Bytes of the SHA-256 digest that make up the hash
+     */
+    private static final int HASH_BYTES = 16;
+
+    private final MessageDigest digest;
+
+    ContentDigest() {
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    ContentDigest add(CategoryEntry category) {
+        add("c", category.getId(), category.getParentId(), category.getQualifier(), category.isBlacklisted(),
+                category.isCustom(), category.isDisplay());
+        return addQualifiers(category.getQualifiers());
+    }
+
+    ContentDigest add(SkillEntry skill) {
+        add("s", skill.getId(), skill.getCategoryId(), skill.getQualifier(), skill.isCustom(),
+                new TreeSet<>(skill.getVersions()));
+        return addQualifiers(skill.getQualifiers());
+    }
+
+    /**
+     * @return the hex encoded hash of everything added
+     */
+    String toHex() {
+        StringBuilder hex = new StringBuilder();
+        byte[] bytes = digest.digest();
+        for (int i = 0; i < HASH_BYTES; i++) {
+            hex.append(String.format("%02x", bytes[i]));
+        }
+        return hex.toString();
+    }
+
+    private ContentDigest addQualifiers(Set<LocalizedQualifier> qualifiers) {
+        qualifiers.stream()
+                .sorted(LOCALIZED_QUALIFIER_ORDER)
+                .forEach(localized -> add("q", localized.getId(), localized.getLocale(), localized.getQualifier()));
+        return this;
+    }
+
+    /**
+     * Adds the values, each prefixed by its length, so that no two different sequences of values are digested alike
+     */
+    private void add(Object... values) {
+        for (Object value : values) {
+            String text = String.valueOf(value);
+            digest.update((text.length() + ":" + text).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
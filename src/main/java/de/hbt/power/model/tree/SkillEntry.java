@@ -0,0 +1,38 @@
+package de.hbt.power.model.tree;
+
+import de.hbt.power.model.LocalizedQualifier;
+import de.hbt.power.model.Skill;
+import lombok.Value;
+
+import java.util.Set;
+
+import static java.util.stream.Collectors.toUnmodifiableSet;
+
+/**
+ * Immutable, detached copy of a {@link Skill} as it is held by a {@link SkillTreeSnapshot}.
+ */
+@Value
+public class SkillEntry {
+    private Integer id;
+    private Integer categoryId;
+    private String qualifier;
+    private boolean custom;
+    private Set<LocalizedQualifier> qualifiers;
+    private Set<String> versions;
+
+    public static SkillEntry of(Skill skill) {
+        Integer categoryId = skill.getCategory() == null ? null : skill.getCategory().getId();
+        Set<LocalizedQualifier> qualifiers = skill.getQualifiers().stream()
+                .map(LocalizedQualifier::copy)
+                .collect(toUnmodifiableSet());
+        return new SkillEntry(skill.getId(), categoryId, skill.getQualifier(), skill.isCustom(), qualifiers,
+                Set.copyOf(skill.getVersions()));
+    }
+
+    /**
+     * @return a hex encoded hash of the content of this skill; Skills with the same content have the same hash
+     */
+    public String getContentHash() {
+        return new ContentDigest().add(this).toHex();
+    }
+}
@@ -0,0 +1,335 @@
+package de.hbt.power.model.tree;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableMap;
+import static java.util.Comparator.nullsLast;
+
+/**
+ * Immutable, versioned view of all categories and categorized skills that make up the skill tree.
+ * <p>
+ * A snapshot is never modified once it has been created. Changes produce a new snapshot with a higher version
+ * via {@link #withChanges}, so a snapshot can be shared between any number of reading threads. The new snapshot
+ * shares the child lists of all parents that are not affected by the changes with this one.
+ * </p>
+ * <p>
+ * Only entries that are reachable from the root are kept; skills without category and categories whose
+ * parent is missing are dropped.
+ * </p>
+ */
+@Getter
+public final class SkillTreeSnapshot {
+
+    /**
+     * ID of the artificial root node that holds all top level categories
+     */
+    public static final int ROOT_ID = -1;
+
+    /**
+     * Order of siblings in the tree: by qualifier (case insensitive), then by ID
+     */
+    private static final Comparator<CategoryEntry> CATEGORY_ORDER = Comparator
+            .comparing(CategoryEntry::getQualifier, nullsLast(String.CASE_INSENSITIVE_ORDER))
+            .thenComparing(CategoryEntry::getId);
+
+    private static final Comparator<SkillEntry> SKILL_ORDER = Comparator
+            .comparing(SkillEntry::getQualifier, nullsLast(String.CASE_INSENSITIVE_ORDER))
+            .thenComparing(SkillEntry::getId);
+
+    private final long version;
+
+    private final Map<Integer, CategoryEntry> categories;
+
+    private final Map<Integer, SkillEntry> skills;
+
+    @Getter(AccessLevel.NONE)
+    private final Map<Integer, List<CategoryEntry>> childCategoriesByParentId;
+
+    @Getter(AccessLevel.NONE)
+    private final Map<Integer, List<SkillEntry>> skillsByCategoryId;
+
+    /**
+     * IDs of all categories that are blacklisted, either themselves or through one of their ancestors
+     */
+    @Getter(AccessLevel.NONE)
+    private final Set<Integer> blacklistedIds;
+
+    /**
+     * Computed on first use; Racing threads compute the same value
+     */
+    @Getter(AccessLevel.NONE)
+    private volatile String contentHash;
+
+    private SkillTreeSnapshot(long version,
+                              Map<Integer, CategoryEntry> categories,
+                              Map<Integer, SkillEntry> skills,
+                              Map<Integer, List<CategoryEntry>> childCategoriesByParentId,
+                              Map<Integer, List<SkillEntry>> skillsByCategoryId,
+                              Set<Integer> blacklistedIds) {
+        this.version = version;
+        this.categories = unmodifiableMap(categories);
+        this.skills = unmodifiableMap(skills);
+        this.childCategoriesByParentId = childCategoriesByParentId;
+        this.skillsByCategoryId = skillsByCategoryId;
+        this.blacklistedIds = blacklistedIds;
+    }
+
+    public static SkillTreeSnapshot of(long version, Collection<CategoryEntry> categories, Collection<SkillEntry> skills) {
+        return create(version, index(categories, CategoryEntry::getId), index(skills, SkillEntry::getId));
+    }
+
+    /**
+     * Creates a copy of this snapshot with the given changes applied. Removals win over changes of the same entry.
+     * Removing a category also removes all of its child categories and skills.
+     * <p>
+     * Changes that keep the structure of the categories (no removed or moved categories, new categories only below
+     * existing ones) only re-sort the children of the affected parents. Otherwise, the whole tree is indexed again.
+     * </p>
+     */
+    public SkillTreeSnapshot withChanges(long version,
+                                         Collection<CategoryEntry> changedCategories,
+                                         Collection<Integer> removedCategoryIds,
+                                         Collection<SkillEntry> changedSkills,
+                                         Collection<Integer> removedSkillIds) {
+        Map<Integer, CategoryEntry> newCategories = new HashMap<>(categories);
+        changedCategories.forEach(category -> newCategories.put(category.getId(), category));
+        if (!removedCategoryIds.isEmpty() || !changedCategories.stream().allMatch(this::keepsStructure)) {
+            removedCategoryIds.forEach(newCategories::remove);
+            Map<Integer, SkillEntry> newSkills = new HashMap<>(skills);
+            changedSkills.forEach(skill -> newSkills.put(skill.getId(), skill));
+            removedSkillIds.forEach(newSkills::remove);
+            return create(version, newCategories, newSkills);
+        }
+
+        // The last change of an entry wins, like above
+        Map<Integer, CategoryEntry> changedCategoriesById = index(changedCategories, CategoryEntry::getId);
+        Map<Integer, SkillEntry> changedSkillsById = index(changedSkills, SkillEntry::getId);
+        Map<Integer, List<CategoryEntry>> newChildCategories = new HashMap<>(childCategoriesByParentId);
+        Set<Integer> changedCategoryIds = changedCategoriesById.keySet();
+        changedCategoriesById.values().stream()
+                .collect(Collectors.groupingBy(SkillTreeSnapshot::parentIdOf))
+                .forEach((parentId, changed) -> newChildCategories.put(parentId, replaced(getChildCategories(parentId),
+                        CategoryEntry::getId, changedCategoryIds, changed, CATEGORY_ORDER)));
+
+        Set<Integer> newBlacklistedIds = blacklistedIds;
+        if (changedCategoriesById.values().stream().anyMatch(this::changesBlacklisting)) {
+            newBlacklistedIds = new HashSet<>(blacklistedIds);
+            deriveBlacklisting(changedCategoriesById.values(), newChildCategories, newBlacklistedIds);
+        }
+
+        Map<Integer, SkillEntry> newSkills = new HashMap<>(skills);
+        Map<Integer, List<SkillEntry>> newSkillsByCategoryId = new HashMap<>(skillsByCategoryId);
+        Set<Integer> touchedSkillIds = new HashSet<>(removedSkillIds);
+        Set<Integer> touchedCategoryIds = new HashSet<>();
+        touchedSkillIds.addAll(changedSkillsById.keySet());
+        touchedSkillIds.stream()
+                .map(skills::get)
+                .filter(Objects::nonNull)
+                .forEach(skill -> touchedCategoryIds.add(skill.getCategoryId()));
+        touchedSkillIds.forEach(newSkills::remove);
+        // Skills without a category in the tree are dropped, like in a freshly loaded snapshot
+        Map<Integer, List<SkillEntry>> addedSkillsByCategoryId = changedSkillsById.values().stream()
+                .filter(skill -> !removedSkillIds.contains(skill.getId()))
+                .filter(skill -> skill.getCategoryId() != null && newCategories.containsKey(skill.getCategoryId()))
+                .peek(skill -> newSkills.put(skill.getId(), skill))
+                .collect(Collectors.groupingBy(SkillEntry::getCategoryId));
+        touchedCategoryIds.addAll(addedSkillsByCategoryId.keySet());
+        touchedCategoryIds.forEach(categoryId -> newSkillsByCategoryId.put(categoryId, replaced(getSkills(categoryId),
+                SkillEntry::getId, touchedSkillIds, addedSkillsByCategoryId.getOrDefault(categoryId, emptyList()),
+                SKILL_ORDER)));
+
+        return new SkillTreeSnapshot(version, newCategories, newSkills,
+                newChildCategories, newSkillsByCategoryId, newBlacklistedIds);
+    }
+
+    /**
+     * @return the IDs of the blacklisted categories that are not below another blacklisted category; All other
+     * blacklisted categories are below one of them
+     */
+    public Set<Integer> getBlacklistedRootIds() {
+        return blacklistedIds.stream()
+                .filter(id -> !blacklistedIds.contains(parentIdOf(categories.get(id))))
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * @param parentId ID of the parent category or {@link #ROOT_ID} for top level categories
+     * @return the direct child categories of the given category, in tree order
+     */
+    public List<CategoryEntry> getChildCategories(int parentId) {
+        return childCategoriesByParentId.getOrDefault(parentId, emptyList());
+    }
+
+    /**
+     * @return <code>true</code> if the given category or one of its ancestors is blacklisted
+     */
+    public boolean isBlacklisted(int categoryId) {
+        return blacklistedIds.contains(categoryId);
+    }
+
+    /**
+     * @return the given category and all of its ancestors, top level category first; Empty if the category is not
+     * part of the tree
+     */
+    public List<CategoryEntry> getCategoryPath(int categoryId) {
+        LinkedList<CategoryEntry> path = new LinkedList<>();
+        CategoryEntry category = categories.get(categoryId);
+        while (category != null) {
+            path.addFirst(category);
+            category = category.getParentId() == null ? null : categories.get(category.getParentId());
+        }
+        return path;
+    }
+
+    /**
+     * @return the skills directly contained in the given category, in tree order
+     */
+    public List<SkillEntry> getSkills(int categoryId) {
+        return skillsByCategoryId.getOrDefault(categoryId, emptyList());
+    }
+
+    public SkillTreeSnapshot withVersion(long version) {
+        SkillTreeSnapshot copy = new SkillTreeSnapshot(version, categories, skills,
+                childCategoriesByParentId, skillsByCategoryId, blacklistedIds);
+        copy.contentHash = contentHash;
+        return copy;
+    }
+
+    /**
+     * @return <code>true</code> if both snapshots contain the same entries, regardless of their version
+     */
+    public boolean hasSameContent(SkillTreeSnapshot other) {
+        return categories.equals(other.categories) && skills.equals(other.skills);
+    }
+
+    /**
+     * @return a hex encoded hash of all entries, regardless of the version. Snapshots with the same content have the
+     * same hash, on any instance of the service.
+     */
+    public String getContentHash() {
+        String hash = contentHash;
+        if (hash == null) {
+            hash = computeContentHash();
+            contentHash = hash;
+        }
+        return hash;
+    }
+
+    private String computeContentHash() {
+        ContentDigest digest = new ContentDigest();
+        new TreeMap<>(categories).values().forEach(digest::add);
+        new TreeMap<>(skills).values().forEach(digest::add);
+        return digest.toHex();
+    }
+
+    private static SkillTreeSnapshot create(long version, Map<Integer, CategoryEntry> categories, Map<Integer, SkillEntry> skills) {
+        Map<Integer, List<Integer>> childIdsByParentId = new HashMap<>();
+        categories.values().forEach(category -> childIdsByParentId
+                .computeIfAbsent(parentIdOf(category), parentId -> new ArrayList<>())
+                .add(category.getId()));
+        // Walk down from the root; Everything that can't be reached this way is an orphan (or part of a cycle)
+        Map<Integer, CategoryEntry> reachable = new HashMap<>();
+        Deque<Integer> open = new ArrayDeque<>(childIdsByParentId.getOrDefault(ROOT_ID, emptyList()));
+        while (!open.isEmpty()) {
+            Integer id = open.pop();
+            if (reachable.putIfAbsent(id, categories.get(id)) == null) {
+                open.addAll(childIdsByParentId.getOrDefault(id, emptyList()));
+            }
+        }
+        Map<Integer, SkillEntry> reachableSkills = new HashMap<>();
+        skills.values().stream()
+                .filter(skill -> skill.getCategoryId() != null && reachable.containsKey(skill.getCategoryId()))
+                .forEach(skill -> reachableSkills.put(skill.getId(), skill));
+        return indexed(version, reachable, reachableSkills);
+    }
+
+    /**
+     * Indexes the children of all categories; The categories must all be reachable from the root.
+     */
+    private static SkillTreeSnapshot indexed(long version, Map<Integer, CategoryEntry> categories, Map<Integer, SkillEntry> skills) {
+        Map<Integer, List<CategoryEntry>> childCategoriesByParentId = new HashMap<>();
+        Map<Integer, List<SkillEntry>> skillsByCategoryId = new HashMap<>();
+        categories.values().forEach(category -> childCategoriesByParentId
+                .computeIfAbsent(parentIdOf(category), parentId -> new ArrayList<>())
+                .add(category));
+        skills.values().forEach(skill -> skillsByCategoryId
+                .computeIfAbsent(skill.getCategoryId(), categoryId -> new ArrayList<>())
+                .add(skill));
+        childCategoriesByParentId.replaceAll((parentId, children) -> sorted(children, CATEGORY_ORDER));
+        skillsByCategoryId.replaceAll((categoryId, children) -> sorted(children, SKILL_ORDER));
+        Set<Integer> blacklistedIds = new HashSet<>();
+        deriveBlacklisting(childCategoriesByParentId.getOrDefault(ROOT_ID, emptyList()), childCategoriesByParentId,
+                blacklistedIds);
+        return new SkillTreeSnapshot(version, categories, skills, childCategoriesByParentId, skillsByCategoryId,
+                blacklistedIds);
+    }
+
+    /**
+     * Updates the blacklisting of the given categories and all categories below them. The blacklisting of their
+     * parents must be up to date.
+     */
+    private static void deriveBlacklisting(Collection<CategoryEntry> categories,
+                                           Map<Integer, List<CategoryEntry>> childCategoriesByParentId,
+                                           Set<Integer> blacklistedIds) {
+        Deque<CategoryEntry> open = new ArrayDeque<>(categories);
+        while (!open.isEmpty()) {
+            CategoryEntry category = open.pop();
+            if (category.isBlacklisted() || blacklistedIds.contains(parentIdOf(category))) {
+                blacklistedIds.add(category.getId());
+            } else {
+                blacklistedIds.remove(category.getId());
+            }
+            open.addAll(childCategoriesByParentId.getOrDefault(category.getId(), emptyList()));
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the category stays where it is, or is new and added below a category of this
+     * snapshot
+     */
+    private boolean keepsStructure(CategoryEntry category) {
+        CategoryEntry current = categories.get(category.getId());
+        if (current != null) {
+            return Objects.equals(current.getParentId(), category.getParentId());
+        }
+        return category.getParentId() == null || categories.containsKey(category.getParentId());
+    }
+
+    private boolean changesBlacklisting(CategoryEntry category) {
+        CategoryEntry current = categories.get(category.getId());
+        return current == null || current.isBlacklisted() != category.isBlacklisted();
+    }
+
+    /**
+     * @return the children without the ones with the given IDs, plus the given additions, in the given order
+     */
+    private static <T> List<T> replaced(List<T> children, Function<T, Integer> idFunction, Set<Integer> removedIds,
+                                        Collection<T> additions, Comparator<T> order) {
+        List<T> result = new ArrayList<>(children.size() + additions.size());
+        children.stream().filter(child -> !removedIds.contains(idFunction.apply(child))).forEach(result::add);
+        result.addAll(additions);
+        return sorted(result, order);
+    }
+
+    private static <T> List<T> sorted(List<T> list, Comparator<T> order) {
+        list.sort(order);
+        return unmodifiableList(list);
+    }
+
+    private static int parentIdOf(CategoryEntry category) {
+        return category.getParentId() == null ? ROOT_ID : category.getParentId();
+    }
+
+    private static <T> Map<Integer, T> index(Collection<T> entries, Function<T, Integer> idFunction) {
+        Map<Integer, T> result = new HashMap<>();
+        entries.forEach(entry -> result.put(idFunction.apply(entry), entry));
+        return result;
+    }
+}
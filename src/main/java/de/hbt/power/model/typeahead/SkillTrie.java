@@ -0,0 +1,346 @@
+package de.hbt.power.model.typeahead;
+
+import java.util.*;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import static java.util.Collections.emptyList;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Immutable prefix trie over normalized skill qualifiers and localized qualifiers, used for typeahead lookups.
+ * <p>
+ * Every qualifier is indexed as a whole and by each of its words, lower cased. Lookups return the (main) qualifiers
+ * of the matching skills: first all skills with a term that starts with the search term, shortest terms first, then
+ * skills with a term within a bounded edit distance of the search term, closest first.
+ * </p>
+ */
+public final class SkillTrie {
+
+    private static final Pattern WORD_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private static final char[] NO_KEYS = new char[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+    private static final int[] NO_VALUES = new int[0];
+
+    /**
+     * Number of completions precomputed for nodes with large subtrees, so short prefixes don't need to walk them
+     */
+    private static final int TOP_COMPLETIONS = 64;
+
+    /**
+     * Qualifiers of all indexed skills, sorted; Nodes refer to them by index, so index order is alphabetical order.
+     */
+    private final String[] qualifiers;
+
+    private final Node root;
+
+    private SkillTrie(String[] qualifiers, Node root) {
+        this.qualifiers = qualifiers;
+        this.root = root;
+    }
+
+    /**
+     * @param textsByQualifier for every skill qualifier, the texts the skill should be found by, e.g. its localized
+     *                         qualifiers. The qualifier itself is always indexed.
+     */
+    public static SkillTrie of(Map<String, ? extends Collection<String>> textsByQualifier) {
+        String[] qualifiers = textsByQualifier.keySet().stream().filter(Objects::nonNull).sorted().toArray(String[]::new);
+        List<TermEntry> entries = new ArrayList<>();
+        for (int i = 0; i < qualifiers.length; i++) {
+            Set<String> terms = new HashSet<>(terms(qualifiers[i]));
+            for (String text : textsByQualifier.get(qualifiers[i])) {
+                terms.addAll(terms(text));
+            }
+            for (String term : terms) {
+                entries.add(new TermEntry(term, i));
+            }
+        }
+        entries.sort(Comparator.comparing((TermEntry entry) -> entry.term).thenComparingInt(entry -> entry.value));
+        String[] terms = new String[entries.size()];
+        int[] values = new int[entries.size()];
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = entries.get(i).term;
+            values[i] = entries.get(i).value;
+        }
+        return new SkillTrie(qualifiers, build(terms, values, 0, terms.length, 0).node);
+    }
+
+    public int size() {
+        return qualifiers.length;
+    }
+
+    /**
+     * @param maxEdits upper bound for the edit distance of fuzzy matches. The distance is further limited by the
+     *                 length of the search term: none for up to 2 characters, 1 for up to 5 characters.
+     * @return qualifiers of at most <code>maxResults</code> matching skills, best matches first
+     */
+    public List<String> search(String term, int maxResults, int maxEdits) {
+        return search(term, maxResults, maxEdits, qualifier -> true);
+    }
+
+    /**
+     * Searches like {@link #search(String, int, int)}, skipping the qualifiers that are not accepted by the filter.
+     */
+    public List<String> search(String term, int maxResults, int maxEdits, Predicate<String> filter) {
+        String normalized = normalize(term);
+        if (normalized.isEmpty() || maxResults <= 0) {
+            return emptyList();
+        }
+        IntPredicate accepted = index -> filter.test(qualifiers[index]);
+        Set<Integer> found = new LinkedHashSet<>();
+        collectCompletions(normalized, found, maxResults, accepted);
+        int edits = Math.min(maxEdits, editsFor(normalized.length()));
+        if (found.size() < maxResults && edits > 0) {
+            collectFuzzyMatches(normalized, edits, found, maxResults, accepted);
+        }
+        return found.stream().map(index -> qualifiers[index]).collect(toList());
+    }
+
+    static String normalize(String text) {
+        return text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static Set<String> terms(String text) {
+        String normalized = normalize(text);
+        Set<String> terms = new HashSet<>();
+        if (!normalized.isEmpty()) {
+            terms.add(normalized);
+            for (String word : WORD_SEPARATOR.split(normalized)) {
+                if (!word.isEmpty()) {
+                    terms.add(word);
+                }
+            }
+        }
+        return terms;
+    }
+
+    private static int editsFor(int termLength) {
+        if (termLength <= 2) {
+            return 0;
+        }
+        return termLength <= 5 ? 1 : 2;
+    }
+
+    /**
+     * Collects the skills below the prefix, shortest terms first. Uses the precomputed completions if possible,
+     * otherwise walks the subtree level by level; All other skills have longer terms than the precomputed ones, so
+     * the walk only adds skills after them.
+     */
+    private void collectCompletions(String prefix, Set<Integer> found, int maxResults, IntPredicate accepted) {
+        Node node = root;
+        for (int i = 0; i < prefix.length() && node != null; i++) {
+            node = node.child(prefix.charAt(i));
+        }
+        if (node != null && node.topCompletions != null && maxResults <= node.topCompletions.length) {
+            for (int i = 0; i < node.topCompletions.length && found.size() < maxResults; i++) {
+                if (accepted.test(node.topCompletions[i])) {
+                    found.add(node.topCompletions[i]);
+                }
+            }
+            if (found.size() >= maxResults) {
+                return;
+            }
+        }
+        List<Node> level = node == null ? emptyList() : Collections.singletonList(node);
+        while (!level.isEmpty() && found.size() < maxResults) {
+            List<Node> nextLevel = new ArrayList<>();
+            int[] values = level.stream().flatMapToInt(n -> Arrays.stream(n.values)).sorted().distinct().toArray();
+            for (int i = 0; i < values.length && found.size() < maxResults; i++) {
+                if (accepted.test(values[i])) {
+                    found.add(values[i]);
+                }
+            }
+            level.forEach(n -> nextLevel.addAll(Arrays.asList(n.children)));
+            level = nextLevel;
+        }
+    }
+
+    private void collectFuzzyMatches(String term, int maxEdits, Set<Integer> found, int maxResults,
+                                     IntPredicate accepted) {
+        // Like a Lucene fuzzy query with a prefix length of 1, the first character has to match; Typos there are
+        // rare, and it keeps the walk small
+        Node first = root.child(term.charAt(0));
+        if (first == null) {
+            return;
+        }
+        // One row of the Levenshtein matrix per depth; A path can't be longer than the term plus the allowed edits
+        int[][] rows = new int[term.length() + maxEdits + 1][term.length() + 1];
+        rows[0][0] = 1;
+        for (int i = 1; i < rows[0].length; i++) {
+            rows[0][i] = i - 1;
+        }
+        Map<Integer, Integer> distances = new HashMap<>();
+        collectFuzzyMatches(first, term, rows, 0, maxEdits, distances);
+        distances.entrySet().stream()
+                .sorted(Map.Entry.<Integer, Integer>comparingByValue().thenComparing(Map.Entry.comparingByKey()))
+                .map(Map.Entry::getKey)
+                .filter(index -> !found.contains(index) && accepted.test(index))
+                .limit(maxResults - found.size())
+                .collect(toList())
+                .forEach(found::add);
+    }
+
+    /**
+     * Walks the subtree of <code>node</code>, given the row of the Levenshtein matrix of the term against the path to
+     * it; Branches whose best row entry exceeds the limit can't lead to a match and are skipped.
+     */
+    private static void collectFuzzyMatches(Node node, String term, int[][] rows, int depth, int maxEdits,
+                                            Map<Integer, Integer> distances) {
+        int[] row = rows[depth];
+        int distance = row[row.length - 1];
+        if (distance <= maxEdits) {
+            for (int value : node.values) {
+                distances.merge(value, distance, Math::min);
+            }
+        }
+        if (depth + 1 == rows.length) {
+            return;
+        }
+        int[] nextRow = rows[depth + 1];
+        for (int k = 0; k < node.keys.length; k++) {
+            char key = node.keys[k];
+            nextRow[0] = row[0] + 1;
+            int best = nextRow[0];
+            for (int i = 1; i < nextRow.length; i++) {
+                int substitution = row[i - 1] + (term.charAt(i - 1) == key ? 0 : 1);
+                nextRow[i] = Math.min(substitution, Math.min(nextRow[i - 1], row[i]) + 1);
+                best = Math.min(best, nextRow[i]);
+            }
+            if (best <= maxEdits) {
+                collectFuzzyMatches(node.children[k], term, rows, depth + 1, maxEdits, distances);
+            }
+        }
+    }
+
+    /**
+     * Builds the node for the sorted terms in <code>[from, to)</code>, which all share their first
+     * <code>depth</code> characters. Completions are computed bottom up and encoded as
+     * <code>term length &lt;&lt; 32 | value</code>, so their natural order is shortest terms first.
+     */
+    private static Built build(String[] terms, int[] values, int from, int to, int depth) {
+        int i = from;
+        // Terms that end here sort before all longer terms with the same prefix
+        while (i < to && terms[i].length() == depth) {
+            i++;
+        }
+        int[] nodeValues = i == from ? NO_VALUES : Arrays.copyOfRange(values, from, i);
+        List<Character> keys = new ArrayList<>();
+        List<Built> children = new ArrayList<>();
+        int candidateCount = nodeValues.length;
+        boolean capped = false;
+        while (i < to) {
+            char key = terms[i].charAt(depth);
+            int end = i;
+            while (end < to && terms[end].charAt(depth) == key) {
+                end++;
+            }
+            Built child = build(terms, values, i, end, depth + 1);
+            keys.add(key);
+            children.add(child);
+            candidateCount += child.completions.length;
+            capped |= child.capped;
+            i = end;
+        }
+
+        long[] candidates = new long[candidateCount];
+        int count = 0;
+        for (int value : nodeValues) {
+            candidates[count++] = (long) depth << 32 | value;
+        }
+        for (Built child : children) {
+            System.arraycopy(child.completions, 0, candidates, count, child.completions.length);
+            count += child.completions.length;
+        }
+        Arrays.sort(candidates);
+        // A skill may be reachable through several terms; Keep its shortest one
+        long[] completions = new long[Math.min(candidates.length, TOP_COMPLETIONS + 1)];
+        int distinct = 0;
+        for (int c = 0; c < candidates.length && distinct < completions.length; c++) {
+            if (!containsValue(completions, distinct, (int) candidates[c])) {
+                completions[distinct++] = candidates[c];
+            }
+        }
+        if (distinct > TOP_COMPLETIONS) {
+            distinct = TOP_COMPLETIONS;
+            capped = true;
+        }
+        completions = Arrays.copyOf(completions, distinct);
+        int[] topCompletions = null;
+        if (capped) {
+            topCompletions = new int[completions.length];
+            for (int c = 0; c < completions.length; c++) {
+                topCompletions[c] = (int) completions[c];
+            }
+        }
+
+        char[] nodeKeys = keys.isEmpty() ? NO_KEYS : new char[keys.size()];
+        Node[] nodeChildren = children.isEmpty() ? NO_CHILDREN : new Node[children.size()];
+        for (int k = 0; k < nodeKeys.length; k++) {
+            nodeKeys[k] = keys.get(k);
+            nodeChildren[k] = children.get(k).node;
+        }
+        return new Built(new Node(nodeKeys, nodeChildren, nodeValues, topCompletions), completions, capped);
+    }
+
+    private static boolean containsValue(long[] completions, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if ((int) completions[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compact node: children are kept in arrays sorted by their key.
+     */
+    private static final class Node {
+        private final char[] keys;
+        private final Node[] children;
+        private final int[] values;
+        /**
+         * The first {@link #TOP_COMPLETIONS} skills of the subtree, shortest terms first; <code>null</code> if the
+         * subtree is small enough to be walked.
+         */
+        private final int[] topCompletions;
+
+        private Node(char[] keys, Node[] children, int[] values, int[] topCompletions) {
+            this.keys = keys;
+            this.children = children;
+            this.values = values;
+            this.topCompletions = topCompletions;
+        }
+
+        private Node child(char key) {
+            int index = Arrays.binarySearch(keys, key);
+            return index < 0 ? null : children[index];
+        }
+    }
+
+    private static final class Built {
+        private final Node node;
+        private final long[] completions;
+        /**
+         * Whether completions were dropped anywhere in the subtree, so they can't be complete
+         */
+        private final boolean capped;
+
+        private Built(Node node, long[] completions, boolean capped) {
+            this.node = node;
+            this.completions = completions;
+            this.capped = capped;
+        }
+    }
+
+    private static final class TermEntry {
+        private final String term;
+        private final int value;
+
+        private TermEntry(String term, int value) {
+            this.term = term;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package de.hbt.power.repo;
+
+import de.hbt.power.model.LocalizedQualifier;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+
+@Repository
+public interface LocalizedQualifierRepository extends JpaRepository<LocalizedQualifier, Integer> {
+
+    /**
+     * Deletes the localized qualifiers with the given IDs. Links to skills or categories must have been deleted
+     * before.
+     * <p>
+     * Native, because a JPQL bulk delete would also clean up the <code>SKILL_QUALIFIERS</code> rows mapped by
+     * {@link LocalizedQualifier#getSkills()}, whose join columns are swapped.
+     * </p>
+     *
+     * @return the number of deleted qualifiers
+     */
+    @Modifying
+    @Query(value = "delete from localized_qualifier where id in (:ids)", nativeQuery = true)
+    int deleteAllByIdIn(@Param("ids") Collection<Integer> ids);
+}
@@ -1,9 +1,14 @@
 package de.hbt.power.repo;
 
 import de.hbt.power.model.SkillCategory;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -13,4 +18,49 @@ public interface SkillCategoryRepository extends JpaRepository<SkillCategory, In
 
     List<SkillCategory> findAllByCategory(SkillCategory skillCategory);
 
+    /**
+     * Loads all categories together with their localized qualifiers in one query.
+     */
+    @EntityGraph(attributePaths = "qualifiers")
+    @Query("select distinct c from SkillCategory c")
+    List<SkillCategory> findAllForTree();
+
+    /**
+     * Replaces the leading <code>oldPrefix</code> of the ancestor path of all categories below it with
+     * <code>newPrefix</code>; Moves a whole subtree in the path index with a single statement.
+     *
+     * @return the number of updated categories
+     */
+    @Modifying
+    @Query("update SkillCategory c set c.path = concat(:newPrefix, substring(c.path, :oldPrefixLength + 1)) " +
+            "where c.path like concat(:oldPrefix, '%')")
+    int replacePathPrefix(@Param("oldPrefix") String oldPrefix, @Param("oldPrefixLength") int oldPrefixLength,
+                          @Param("newPrefix") String newPrefix);
+
+    @Query("select c.id from SkillCategory c where c.id = :id or c.path like concat(:childPath, '%')")
+    List<Integer> findSubtreeIds(@Param("id") Integer id, @Param("childPath") String childPath);
+
+    @Query(value = "select skill_category_id from skill_category_qualifiers where qualifiers_id in (:categoryIds)", nativeQuery = true)
+    List<Integer> findQualifierIds(@Param("categoryIds") Collection<Integer> categoryIds);
+
+    @Modifying
+    @Query(value = "delete from skill_category_qualifiers where qualifiers_id in (:categoryIds)", nativeQuery = true)
+    int deleteQualifierLinks(@Param("categoryIds") Collection<Integer> categoryIds);
+
+    /**
+     * Removes the parent of the categories with the given IDs, so they can be deleted in any order.
+     */
+    @Modifying
+    @Query("update SkillCategory c set c.category = null where c.id in :ids")
+    int detachFromParents(@Param("ids") Collection<Integer> ids);
+
+    /**
+     * Deletes the categories with the given IDs without loading them. Localized qualifiers and skills must have
+     * been deleted before.
+     *
+     * @return the number of deleted categories
+     */
+    @Modifying
+    @Query("delete from SkillCategory c where c.id in :ids")
+    int deleteAllByIdIn(@Param("ids") Collection<Integer> ids);
 }
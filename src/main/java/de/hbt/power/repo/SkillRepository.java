@@ -2,11 +2,15 @@ package de.hbt.power.repo;
 
 import de.hbt.power.model.Skill;
 import de.hbt.power.model.SkillCategory;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -16,6 +20,61 @@ public interface SkillRepository extends JpaRepository<Skill, Integer>, CrudRepo
 
     void deleteAllByCategory(SkillCategory category);
 
-    @Query("select s from Skill s WHERE not s.category is null")
+    /**
+     * Loads all categorized skills together with their localized qualifiers and versions in one query.
+     * Their categories are expected to be loaded already, see {@link SkillCategoryRepository#findAllForTree()}.
+     */
+    @EntityGraph(attributePaths = {"qualifiers", "versions"})
+    @Query("select distinct s from Skill s WHERE not s.category is null")
     List<Skill> findForTree();
+
+    /**
+     * @return one row <code>[skill id, skill qualifier, localized qualifier]</code> per localized qualifier of every
+     * skill, and <code>[skill id, skill qualifier, null]</code> for skills without localized qualifiers
+     */
+    @Query("select s.id, s.qualifier, q.qualifier from Skill s left join s.qualifiers q")
+    List<Object[]> findQualifiersForSearch();
+
+    @Query("select s.id from Skill s")
+    List<Integer> findAllIds();
+
+    @Query("select s.id from Skill s where s.category.id in :categoryIds")
+    List<Integer> findIdsByCategoryIds(@Param("categoryIds") Collection<Integer> categoryIds);
+
+    /**
+     * @return the IDs of the skills whose indexed content changed at or after the given epoch milliseconds
+     */
+    @Query("select s.id from Skill s where s.modifiedAt >= :since")
+    List<Integer> findIdsModifiedSince(@Param("since") long since);
+
+    /**
+     * Sets the modification time of all skills in the given categories, without loading them. Skills that are
+     * already loaded in the current persistence context keep their previous modification time.
+     *
+     * @return the number of updated skills
+     */
+    @Modifying
+    @Query("update Skill s set s.modifiedAt = :modifiedAt where s.category.id in :categoryIds")
+    int touchByCategoryIds(@Param("categoryIds") Collection<Integer> categoryIds, @Param("modifiedAt") long modifiedAt);
+
+    @Query(value = "select qualifiers_id from skill_qualifiers where skill_id in (:skillIds)", nativeQuery = true)
+    List<Integer> findQualifierIds(@Param("skillIds") Collection<Integer> skillIds);
+
+    @Modifying
+    @Query(value = "delete from skill_qualifiers where skill_id in (:skillIds)", nativeQuery = true)
+    int deleteQualifierLinks(@Param("skillIds") Collection<Integer> skillIds);
+
+    @Modifying
+    @Query(value = "delete from skill_versions where skill_id in (:skillIds)", nativeQuery = true)
+    int deleteVersions(@Param("skillIds") Collection<Integer> skillIds);
+
+    /**
+     * Deletes the skills with the given IDs without loading them. Localized qualifiers and versions must have been
+     * deleted before.
+     *
+     * @return the number of deleted skills
+     */
+    @Modifying
+    @Query("delete from Skill s where s.id in :ids")
+    int deleteAllByIdIn(@Param("ids") Collection<Integer> ids);
 }
@@ -0,0 +1,89 @@
+package de.hbt.power.service;
+
+import lombok.extern.log4j.Log4j2;
+import org.hibernate.search.backend.IndexingMonitor;
+import org.hibernate.search.backend.LuceneWork;
+import org.hibernate.search.backend.spi.Backend;
+import org.hibernate.search.backend.spi.BackendQueueProcessor;
+import org.hibernate.search.engine.service.beanresolver.spi.BeanResolver;
+import org.hibernate.search.indexes.spi.IndexManager;
+import org.hibernate.search.spi.WorkerBuildContext;
+
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Hibernate Search backend (<code>hibernate.search.default.worker.backend</code>) that hands the index changes of
+ * committed transactions to the {@link IndexWorkQueue}. Until the queue is available, and in the mode
+ * <code>sync</code>, the changes are applied at commit like by the default backend.
+ * <p>
+ * Hibernate Search creates the backend by its class name, so it looks the queue up through the bean container of
+ * Hibernate, which Spring Boot backs with the application context. As the queue is created after the entity manager
+ * factory, this is done on first use.
+ * </p>
+ * <p>
+ * The mass indexer doesn't use the backend; It writes to the index managers directly.
+ * </p>
+ */
+@Log4j2
+public class AsyncIndexBackend implements Backend {
+
+    private BeanResolver beanResolver;
+
+    private volatile IndexWorkQueue queue;
+
+    @Override
+    public void initialize(Properties properties, WorkerBuildContext context) {
+        beanResolver = context.getServiceManager().getBeanResolver();
+    }
+
+    @Override
+    public BackendQueueProcessor createQueueProcessor(IndexManager indexManager, WorkerBuildContext context) {
+        return new QueueProcessor(indexManager);
+    }
+
+    /**
+     * @return the queue, or <code>null</code> if it can't be looked up (yet)
+     */
+    private IndexWorkQueue getQueue() {
+        IndexWorkQueue resolved = queue;
+        if (resolved == null) {
+            try {
+                resolved = beanResolver.resolve(IndexWorkQueue.class, IndexWorkQueue.class);
+                queue = resolved;
+            } catch (RuntimeException e) {
+                log.warn("Index work queue is not available, applying changes at commit: " + e);
+            }
+        }
+        return resolved;
+    }
+
+    private final class QueueProcessor implements BackendQueueProcessor {
+
+        private final IndexManager indexManager;
+
+        private QueueProcessor(IndexManager indexManager) {
+            this.indexManager = indexManager;
+        }
+
+        @Override
+        public void applyWork(List<LuceneWork> workList, IndexingMonitor monitor) {
+            IndexWorkQueue workQueue = getQueue();
+            if (workQueue == null) {
+                indexManager.performOperations(workList, monitor);
+            } else {
+                workQueue.submit(indexManager, workList, monitor);
+            }
+        }
+
+        @Override
+        public void applyStreamWork(LuceneWork singleOperation, IndexingMonitor monitor) {
+            indexManager.performStreamOperation(singleOperation, monitor, false);
+        }
+
+        @Override
+        public void close() {
+            // The queue applies its remaining changes when the application context is closed
+        }
+    }
+}
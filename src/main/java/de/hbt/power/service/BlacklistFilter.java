@@ -0,0 +1,71 @@
+package de.hbt.power.service;
+
+import de.hbt.power.model.Skill;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Value;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.queries.TermsQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Optional;
+import java.util.Set;
+
+import static java.util.Collections.emptySet;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Matches the skills in blacklisted categories, by the blacklisted categories that are not below another blacklisted
+ * category. Skills are indexed with the IDs of all categories above them, so the filter only changes when categories
+ * are blacklisted or whitelisted.
+ */
+@Value
+class BlacklistFilter {
+
+    static final BlacklistFilter EMPTY = new BlacklistFilter(-1, emptySet(), null);
+
+    /**
+     * Version of the skill tree snapshot the filter was last checked against
+     */
+    private final long snapshotVersion;
+
+    private final Set<Integer> rootIds;
+
+    /**
+     * Already rewritten, so searches use exactly this query and find its cached bitsets; <code>null</code> if nothing
+     * is blacklisted
+     */
+    @Getter(AccessLevel.NONE)
+    private final Query query;
+
+    static BlacklistFilter of(long snapshotVersion, Set<Integer> rootIds) {
+        if (rootIds.isEmpty()) {
+            return new BlacklistFilter(snapshotVersion, rootIds, null);
+        }
+        Query terms = new TermsQuery(Skill.CATEGORY_ANCESTOR_IDS_FIELD, rootIds.stream()
+                .map(id -> new BytesRef(String.valueOf(id)))
+                .collect(toList()));
+        try {
+            // Rewriting terms does not depend on the index
+            return new BlacklistFilter(snapshotVersion, rootIds, new IndexSearcher(new MultiReader()).rewrite(terms));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    Optional<Query> getQuery() {
+        return Optional.ofNullable(query);
+    }
+
+    boolean isFilter(Query query) {
+        return this.query != null && this.query.equals(query);
+    }
+
+    BlacklistFilter withSnapshotVersion(long snapshotVersion) {
+        return new BlacklistFilter(snapshotVersion, rootIds, query);
+    }
+}
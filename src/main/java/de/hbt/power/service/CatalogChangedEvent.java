@@ -0,0 +1,40 @@
+package de.hbt.power.service;
+
+import de.hbt.power.model.tree.SkillEntry;
+import lombok.Value;
+
+import java.util.List;
+import java.util.Set;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptySet;
+
+/**
+ * Published by {@link SkillTreeSnapshotService} whenever the catalog of categories and skills changed, after the
+ * change has been committed. Events are published in the order of their changes.
+ */
+@Value
+public class CatalogChangedEvent {
+    /**
+     * The new catalog version, see {@link SkillTreeSnapshotService#getCatalogVersion()}; <code>0</code> if the
+     * skill tree has not been loaded yet
+     */
+    private long version;
+    /**
+     * Skills that were added or changed
+     */
+    private List<SkillEntry> changedSkills;
+    /**
+     * IDs of removed skills, including the skills of removed categories; Removed after the changed skills are applied
+     */
+    private Set<Integer> removedSkillIds;
+    /**
+     * Whether the catalog was loaded from the database again, e.g. to pick up changes made by other instances. The
+     * individual changes are not known then.
+     */
+    private boolean reloaded;
+
+    public static CatalogChangedEvent reloaded(long version) {
+        return new CatalogChangedEvent(version, emptyList(), emptySet(), true);
+    }
+}
@@ -2,23 +2,28 @@ package de.hbt.power.service;
 
 import de.hbt.power.exception.SkillServiceException;
 import de.hbt.power.model.SkillCategory;
+import de.hbt.power.repo.LocalizedQualifierRepository;
 import de.hbt.power.repo.SkillCategoryRepository;
 import de.hbt.power.repo.SkillRepository;
 import de.hbt.power.util.LocaleUtil;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.client.HttpClientErrorException;
 
-import java.util.Locale;
-import java.util.Optional;
+import java.util.*;
 
 import static de.hbt.power.exception.SkillServiceException.categoryAlreadyExists;
+import static de.hbt.power.exception.SkillServiceException.categoryBlacklistedByAncestor;
 import static de.hbt.power.model.SkillCategory.custom;
-import static de.hbt.power.util.SkillServiceUtil.peek;
 import static java.util.Optional.ofNullable;
+import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
 
 @Service
 @Log4j2
@@ -26,13 +31,22 @@ public class CategoryService {
 
     private final SkillCategoryRepository skillCategoryRepository;
     private final SkillRepository skillRepository;
+    private final SkillTreeSnapshotService skillTreeSnapshotService;
+    private final LocalizedQualifierRepository localizedQualifierRepository;
+    private final SkillSearcherService skillSearcherService;
 
     private static final String OTHER_CATEGORY_NAME = "Other";
 
     @Autowired
-    public CategoryService(SkillCategoryRepository skillCategoryRepository, SkillRepository skillRepository) {
+    public CategoryService(SkillCategoryRepository skillCategoryRepository, SkillRepository skillRepository,
+                           SkillTreeSnapshotService skillTreeSnapshotService,
+                           LocalizedQualifierRepository localizedQualifierRepository,
+                           SkillSearcherService skillSearcherService) {
         this.skillCategoryRepository = skillCategoryRepository;
         this.skillRepository = skillRepository;
+        this.skillTreeSnapshotService = skillTreeSnapshotService;
+        this.localizedQualifierRepository = localizedQualifierRepository;
+        this.skillSearcherService = skillSearcherService;
     }
 
 
@@ -41,6 +55,7 @@ public class CategoryService {
         Optional<Locale> optional = LocaleUtil.getLocaleFromISO639_2(language);
         Locale locale = optional.orElseThrow(() -> new HttpClientErrorException(HttpStatus.BAD_REQUEST, language + " is not a valid ISO 639-2 code"));
         skillCategory.addLocale(locale, qualifier);
+        skillTreeSnapshotService.categoryChanged(skillCategory);
         return skillCategory;
     }
 
@@ -49,47 +64,246 @@ public class CategoryService {
         Optional<Locale> optional = LocaleUtil.getLocaleFromISO639_2(language);
         Locale locale = optional.orElseThrow(() -> new HttpClientErrorException(HttpStatus.BAD_REQUEST, language + " is not a valid ISO 639-2 code"));
         skillCategory.removeLocale(locale);
+        skillTreeSnapshotService.categoryChanged(skillCategory);
         return skillCategory;
     }
 
     @Transactional
     public SkillCategory moveCategory(SkillCategory toMove, SkillCategory newParent) {
-        if (newParent.hasTransitiveParent(toMove)) {
+        if (newParent.equals(toMove) || newParent.hasTransitiveParent(toMove)) {
             throw new IllegalStateException("New parent has the category to move as transitive parent");
         }
+        String oldChildPath = toMove.getChildPath();
         toMove.setCategory(newParent);
+        toMove.updatePath();
+        String newChildPath = toMove.getChildPath();
+        if (oldChildPath != null && newChildPath != null) {
+            skillCategoryRepository.replacePathPrefix(oldChildPath, oldChildPath.length(), newChildPath);
+        } else {
+            // Paths are incomplete (not yet backfilled); Rebuild instead of moving a prefix
+            rebuildAncestorPaths();
+        }
+        skillTreeSnapshotService.categoryChanged(toMove);
+        // The skills of the subtree are indexed with their ancestor categories
+        List<Integer> categoryIds = findSubtreeIds(toMove);
+        if (!categoryIds.isEmpty()) {
+            skillRepository.touchByCategoryIds(categoryIds, System.currentTimeMillis());
+            skillSearcherService.reindexSkills(skillRepository.findIdsByCategoryIds(categoryIds));
+        }
         return toMove;
     }
 
+    /**
+     * Deletes the given category with all categories below it, their skills and the localized qualifiers of both.
+     * Uses a fixed number of set-based statements, independent of the size of the subtree; The removed skills are
+     * purged from the search index in one batch. Entities of the subtree that are already loaded in the current
+     * persistence context are not detached.
+     */
     @Transactional
     public void deleteCategory(SkillCategory toDelete) {
-        if(toDelete != null){
-            skillCategoryRepository.findAllByCategory(toDelete).forEach(this::deleteCategory);
-            skillRepository.deleteAllByCategory(toDelete);
-            skillCategoryRepository.delete(toDelete);
+        if (toDelete == null) {
+            return;
+        }
+        if (toDelete.getChildPath() == null) {
+            rebuildAncestorPaths();
+        }
+        List<Integer> categoryIds = skillCategoryRepository.findSubtreeIds(toDelete.getId(), toDelete.getChildPath());
+        if (categoryIds.isEmpty()) {
+            return;
+        }
+        List<Integer> skillIds = skillRepository.findIdsByCategoryIds(categoryIds);
+        List<Integer> qualifierIds = new ArrayList<>(skillCategoryRepository.findQualifierIds(categoryIds));
+        skillCategoryRepository.deleteQualifierLinks(categoryIds);
+        if (!skillIds.isEmpty()) {
+            qualifierIds.addAll(skillRepository.findQualifierIds(skillIds));
+            skillRepository.deleteQualifierLinks(skillIds);
+            skillRepository.deleteVersions(skillIds);
+            skillRepository.deleteAllByIdIn(skillIds);
+        }
+        if (!qualifierIds.isEmpty()) {
+            localizedQualifierRepository.deleteAllByIdIn(qualifierIds);
+        }
+        skillCategoryRepository.detachFromParents(categoryIds);
+        int deleted = skillCategoryRepository.deleteAllByIdIn(categoryIds);
+        skillSearcherService.purgeFromIndex(skillIds, qualifierIds);
+        skillTreeSnapshotService.categoryRemoved(toDelete);
+        log.info("Deleted " + deleted + " categories and " + skillIds.size() + " skills");
+    }
+
+    /**
+     * Writes all skills in the given category and in the categories below it to the search index again.
+     *
+     * @return the number of skills that were indexed
+     */
+    @Transactional
+    public int reindexSubtree(SkillCategory category) {
+        List<Integer> categoryIds = findSubtreeIds(category);
+        if (categoryIds.isEmpty()) {
+            return 0;
         }
+        return skillSearcherService.reindexSkills(skillRepository.findIdsByCategoryIds(categoryIds));
+    }
 
+    private List<Integer> findSubtreeIds(SkillCategory category) {
+        if (category.getChildPath() == null) {
+            rebuildAncestorPaths();
+        }
+        return skillCategoryRepository.findSubtreeIds(category.getId(), category.getChildPath());
     }
 
+    /**
+     * Sets the blacklist flag of the given category.
+     * <p>
+     * Only the flag of the category itself is stored; All categories below it are blacklisted through it, see
+     * {@link SkillCategory#isEffectivelyBlacklisted()}. Categories below a blacklisted category never store the flag
+     * themselves, see {@link #clearInheritedBlacklistFlags()}, so whitelisting the blacklisted category whitelists
+     * the whole subtree below it.
+     * </p>
+     * <p>
+     * A category below a blacklisted category can't be whitelisted on its own; The blacklisted ancestor has to be
+     * whitelisted instead. Blacklisting it leaves it unchanged, as it is blacklisted already.
+     * </p>
+     *
+     * @return the number of categories whose stored flag was written
+     * @throws SkillServiceException if the category is to be whitelisted, but one of its ancestors is blacklisted
+     */
     @Transactional
-    public void setBlacklist(SkillCategory skillCategory, boolean blacklisted) {
+    public int setBlacklist(SkillCategory skillCategory, boolean blacklisted) {
+        Optional<SkillCategory> ancestor = findBlacklistedAncestor(skillCategory);
+        if (ancestor.isPresent()) {
+            if (!blacklisted) {
+                throw categoryBlacklistedByAncestor(skillCategory, ancestor.get());
+            }
+            return 0;
+        }
         skillCategory.setBlacklisted(blacklisted);
-        skillCategoryRepository.findAllByCategory(skillCategory).forEach(childCategory -> setBlacklist(childCategory, blacklisted));
+        skillTreeSnapshotService.categoryChanged(skillCategory);
+        return 1;
     }
 
-    public void blacklist(SkillCategory skillCategory) {
-        setBlacklist(skillCategory, true);
+    /**
+     * Loads all ancestors of the given category at once, instead of walking up the lazy parents one select at a time.
+     *
+     * @return the blacklisted ancestor closest to the category
+     */
+    private Optional<SkillCategory> findBlacklistedAncestor(SkillCategory skillCategory) {
+        if (skillCategory.getPath() == null) {
+            rebuildAncestorPaths();
+        }
+        List<Integer> ancestorIds = new ArrayList<>(skillCategory.getAncestorIds());
+        if (ancestorIds.isEmpty()) {
+            return Optional.empty();
+        }
+        Map<Integer, SkillCategory> ancestorsById = skillCategoryRepository.findAllById(ancestorIds).stream()
+                .collect(toMap(SkillCategory::getId, identity()));
+        Collections.reverse(ancestorIds);
+        return ancestorIds.stream()
+                .map(ancestorsById::get)
+                .filter(ancestor -> ancestor != null && ancestor.isBlacklisted())
+                .findFirst();
+    }
+
+    public int blacklist(SkillCategory skillCategory) {
+        return setBlacklist(skillCategory, true);
     }
 
-    public void whitelist(SkillCategory skillCategory) {
-        setBlacklist(skillCategory, false);
+    public int whitelist(SkillCategory skillCategory) {
+        return setBlacklist(skillCategory, false);
     }
 
     @Transactional
     public void setIsDisplay(SkillCategory skillCategory, Boolean isDisplay) {
         skillCategory.setDisplay(isDisplay);
+        skillTreeSnapshotService.categoryChanged(skillCategory);
+    }
+
+
+    /**
+     * Recomputes the ancestor path of every category from the parent references and stores those that differ,
+     * e.g. for categories that were created before the path was introduced.
+     *
+     * @return the number of categories whose path was updated
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public int rebuildAncestorPaths() {
+        Map<Integer, SkillCategory> categoriesById = skillCategoryRepository.findAll().stream()
+                .collect(toMap(SkillCategory::getId, identity()));
+        Map<Integer, String> paths = new HashMap<>();
+        Set<Integer> visiting = new HashSet<>();
+        int updated = 0;
+        for (SkillCategory category : categoriesById.values()) {
+            String path = computePath(category, categoriesById, paths, visiting);
+            if (path != null && !path.equals(category.getPath())) {
+                category.setPath(path);
+                updated++;
+            }
+        }
+        if (updated > 0) {
+            log.info("Updated ancestor path of " + updated + " categories");
+        }
+        return updated;
+    }
+
+    /**
+     * Clears the blacklist flag of all categories below a blacklisted category. Blacklisting used to copy the flag to
+     * all categories below; Those copies would keep the categories blacklisted after their ancestor is whitelisted.
+     *
+     * @return the number of categories whose flag was cleared
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public int clearInheritedBlacklistFlags() {
+        Map<Integer, SkillCategory> categoriesById = skillCategoryRepository.findAll().stream()
+                .collect(toMap(SkillCategory::getId, identity()));
+        List<SkillCategory> inherited = categoriesById.values().stream()
+                .filter(SkillCategory::isBlacklisted)
+                .filter(category -> hasBlacklistedAncestor(category, categoriesById))
+                .collect(toList());
+        inherited.forEach(category -> {
+            category.setBlacklisted(false);
+            skillTreeSnapshotService.categoryChanged(category);
+        });
+        if (!inherited.isEmpty()) {
+            log.info("Cleared inherited blacklist flag of " + inherited.size() + " categories");
+        }
+        return inherited.size();
     }
 
+    private static boolean hasBlacklistedAncestor(SkillCategory category, Map<Integer, SkillCategory> categoriesById) {
+        Set<Integer> visited = new HashSet<>();
+        SkillCategory ancestor = parentOf(category, categoriesById);
+        while (ancestor != null && visited.add(ancestor.getId())) {
+            if (ancestor.isBlacklisted()) {
+                return true;
+            }
+            ancestor = parentOf(ancestor, categoriesById);
+        }
+        return false;
+    }
+
+    private static SkillCategory parentOf(SkillCategory category, Map<Integer, SkillCategory> categoriesById) {
+        return category.getCategory() == null ? null : categoriesById.get(category.getCategory().getId());
+    }
+
+    private String computePath(SkillCategory category, Map<Integer, SkillCategory> categoriesById,
+                               Map<Integer, String> paths, Set<Integer> visiting) {
+        if (paths.containsKey(category.getId())) {
+            return paths.get(category.getId());
+        }
+        if (!visiting.add(category.getId())) {
+            log.warn("Category " + category + " is part of a cycle, can't compute its path");
+            return null;
+        }
+        String path = "/";
+        if (category.getCategory() != null) {
+            SkillCategory parent = categoriesById.get(category.getCategory().getId());
+            String parentPath = parent == null ? null : computePath(parent, categoriesById, paths, visiting);
+            path = parentPath == null ? null : parentPath + parent.getId() + "/";
+        }
+        paths.put(category.getId(), path);
+        return path;
+    }
 
     public SkillCategory getOther() {
         return skillCategoryRepository.findOneByQualifier(OTHER_CATEGORY_NAME)
@@ -108,11 +322,12 @@ public class CategoryService {
         SkillCategory newCategory = custom(category.getQualifier());
         ofNullable(parentId)
                 .map(this::getCategory)
-                .map(peek(c -> newCategory.setBlacklisted(c.isBlacklisted())))
                 .ifPresent(newCategory::setCategory);
         category.getQualifiers()
                 .forEach(locale -> addLocalizationToCategory(newCategory, locale.getLocale(), locale.getQualifier()));
-        return skillCategoryRepository.save(newCategory);
+        SkillCategory saved = skillCategoryRepository.save(newCategory);
+        skillTreeSnapshotService.categoryChanged(saved);
+        return saved;
     }
 
     private void shouldNotExist(String qualifier) {
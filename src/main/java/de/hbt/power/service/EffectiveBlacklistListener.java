@@ -0,0 +1,32 @@
+package de.hbt.power.service;
+
+import de.hbt.power.model.SkillCategory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import javax.persistence.PostLoad;
+
+/**
+ * Derives whether a loaded {@link SkillCategory} is blacklisted through one of its ancestors from the current
+ * skill tree snapshot, so reading a category does not need to load its parents.
+ */
+public class EffectiveBlacklistListener {
+
+    /**
+     * Resolved lazily; The listener is created together with the entity manager factory the service depends on.
+     */
+    private final ObjectProvider<SkillTreeSnapshotService> skillTreeSnapshotService;
+
+    @Autowired
+    public EffectiveBlacklistListener(ObjectProvider<SkillTreeSnapshotService> skillTreeSnapshotService) {
+        this.skillTreeSnapshotService = skillTreeSnapshotService;
+    }
+
+    @PostLoad
+    public void postLoad(SkillCategory category) {
+        SkillTreeSnapshotService service = skillTreeSnapshotService.getIfAvailable();
+        if (service != null) {
+            service.findAncestorBlacklisted(category).ifPresent(category::setAncestorBlacklisted);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package de.hbt.power.service;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.BlendedTermQuery;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MultiTermQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopTermsRewrite;
+
+/**
+ * Rewrites a fuzzy query to its best matching terms, like {@link MultiTermQuery.TopTermsBlendedFreqScoringRewrite},
+ * and tells whether the number of terms was limited. Used for a single query only.
+ */
+class FuzzyExpansionRewrite extends TopTermsRewrite<BlendedTermQuery.Builder> {
+
+    private int expansions = 0;
+
+    FuzzyExpansionRewrite(int maxExpansions) {
+        super(maxExpansions);
+    }
+
+    /**
+     * @return <code>true</code> if the query expanded to as many terms as allowed, so further terms may have been
+     * dropped
+     */
+    boolean isLimitReached() {
+        return expansions >= getSize();
+    }
+
+    @Override
+    protected int getMaxSize() {
+        return BooleanQuery.getMaxClauseCount();
+    }
+
+    @Override
+    protected BlendedTermQuery.Builder getTopLevelBuilder() {
+        BlendedTermQuery.Builder builder = new BlendedTermQuery.Builder();
+        builder.setRewriteMethod(BlendedTermQuery.BOOLEAN_REWRITE);
+        return builder;
+    }
+
+    @Override
+    protected Query build(BlendedTermQuery.Builder builder) {
+        return builder.build();
+    }
+
+    @Override
+    protected void addClause(BlendedTermQuery.Builder topLevel, Term term, int docCount, float boost, TermContext states) {
+        expansions++;
+        topLevel.add(term, boost, states);
+    }
+}
@@ -0,0 +1,417 @@
+package de.hbt.power.service;
+
+import de.hbt.power.model.dto.IndexSnapshotStatus;
+import de.hbt.power.model.dto.IndexStatus;
+import de.hbt.power.repo.SkillRepository;
+import lombok.extern.log4j.Log4j2;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.hibernate.search.indexes.spi.DirectoryBasedIndexManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static de.hbt.power.exception.SkillServiceException.indexRebuildRunning;
+import static de.hbt.power.exception.SkillServiceException.indexSnapshotsDisabled;
+import static de.hbt.power.service.SearchIndexMaintenanceService.INDEXED_TYPES;
+
+/**
+ * Shares a built search index between the instances of the service through a directory all of them can access
+ * (<code>skill-search.index.snapshot.directory</code>, e.g. a mounted network file system).
+ * <p>
+ * After a rebuild, the instance that built the index publishes a snapshot: A copy of the last commit of each index in
+ * the directory <code>snapshot-&lt;version&gt;</code>, with a manifest of the SHA-256 checksums of its files. The file
+ * <code>latest</code>, which holds the version of the newest snapshot, is only replaced once the snapshot is
+ * complete. The other instances poll <code>latest</code>, copy a newer snapshot to a local staging directory, verify
+ * the checksums and replace their index with it in a single Lucene commit; Searches use the previous index until
+ * then.
+ * </p>
+ * <p>
+ * The manifest also records the time the index is up to date with the database, i.e. the start of the rebuild it was
+ * built by. Skills written after that time by any instance may be stale or missing in the snapshot, so every skill
+ * modified since then (see {@link de.hbt.power.model.Skill#getModifiedAt()}), less
+ * <code>max-clock-skew</code> to allow for the clocks of the instances, is indexed again after installing it. Skills
+ * deleted meanwhile are removed by the consistency check that runs afterwards, see
+ * {@link SearchIndexMaintenanceService#checkConsistency(boolean)}. If the time is unknown, e.g. because the index was
+ * published without a rebuild since the publishing instance was started, all modified skills are indexed again.
+ * </p>
+ */
+@Service
+@Log4j2
+public class IndexSnapshotService {
+
+    static final String LATEST_FILE = "latest";
+
+    static final String MANIFEST_FILE = "manifest.properties";
+
+    static final String SNAPSHOT_PREFIX = "snapshot-";
+
+    /**
+     * Key of the manifest entry holding the time the index is up to date with the database; File entries contain a
+     * slash and never collide with it
+     */
+    static final String AS_OF_KEY = "as-of";
+
+    private static final String STAGING_SUFFIX = ".tmp";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final SearchIndexMaintenanceService searchIndexMaintenanceService;
+
+    private final SkillSearcherService skillSearcherService;
+
+    private final SkillSearchCache skillSearchCache;
+
+    private final SkillRepository skillRepository;
+
+    /**
+     * <code>null</code> if snapshots are disabled
+     */
+    private final Path sharedDirectory;
+
+    private final int keep;
+
+    private final long maxClockSkewMillis;
+
+    /**
+     * Version of the snapshot this instance published or installed last; Guarded by <code>this</code>
+     */
+    private long currentVersion = 0;
+
+    /**
+     * End of the last rebuild of this instance that was published; Guarded by <code>this</code>
+     */
+    private Long publishedRebuild;
+
+    /**
+     * Epoch milliseconds up to which the index of this instance contains all changes of the database, as far as it
+     * was installed from a snapshot; 0 if unknown. Guarded by <code>this</code>
+     */
+    private long installedAsOf = 0;
+
+    @Autowired
+    public IndexSnapshotService(final SearchIndexMaintenanceService searchIndexMaintenanceService,
+                                final SkillSearcherService skillSearcherService,
+                                final SkillSearchCache skillSearchCache,
+                                final SkillRepository skillRepository,
+                                @Value("${skill-search.index.snapshot.directory:}") final String sharedDirectory,
+                                @Value("${skill-search.index.snapshot.keep:3}") final int keep,
+                                @Value("${skill-search.index.snapshot.max-clock-skew:60000}") final long maxClockSkewMillis) {
+        this.searchIndexMaintenanceService = searchIndexMaintenanceService;
+        this.skillSearcherService = skillSearcherService;
+        this.skillSearchCache = skillSearchCache;
+        this.skillRepository = skillRepository;
+        this.sharedDirectory = StringUtils.isEmpty(sharedDirectory) ? null : Paths.get(sharedDirectory);
+        this.keep = keep;
+        this.maxClockSkewMillis = maxClockSkewMillis;
+    }
+
+    public synchronized IndexSnapshotStatus getStatus() {
+        IndexSnapshotStatus.IndexSnapshotStatusBuilder status = IndexSnapshotStatus.builder()
+                .enabled(sharedDirectory != null)
+                .currentVersion(currentVersion);
+        if (sharedDirectory != null) {
+            status.directory(sharedDirectory.toString()).latestVersion(readLatestVersion(sharedDirectory));
+        }
+        return status.build();
+    }
+
+    /**
+     * Publishes the current index of this instance as the newest snapshot.
+     */
+    public IndexSnapshotStatus publish() {
+        if (sharedDirectory == null) {
+            throw indexSnapshotsDisabled();
+        }
+        if (searchIndexMaintenanceService.isRebuilding()) {
+            throw indexRebuildRunning();
+        }
+        publish(sharedDirectory);
+        return getStatus();
+    }
+
+    /**
+     * Publishes the index once a rebuild of this instance is completed, and otherwise installs snapshots published by
+     * other instances.
+     */
+    @Scheduled(fixedDelayString = "${skill-search.index.snapshot.poll-interval:30000}",
+            initialDelayString = "${skill-search.index.snapshot.poll-interval:30000}")
+    public synchronized void synchronize() {
+        if (sharedDirectory == null) {
+            return;
+        }
+        IndexStatus rebuild = skillSearcherService.getSearchIndexStatus();
+        if (rebuild.getState() == IndexStatus.State.RUNNING) {
+            return;
+        }
+        try {
+            if (rebuild.getState() == IndexStatus.State.COMPLETED && !rebuild.getFinishedAt().equals(publishedRebuild)) {
+                publishedRebuild = rebuild.getFinishedAt();
+                publish(sharedDirectory);
+            } else {
+                installLatest(sharedDirectory);
+            }
+        } catch (UncheckedIOException e) {
+            log.error("Could not synchronize the search index with " + sharedDirectory, e);
+        }
+    }
+
+    synchronized long publish(Path shared) {
+        return publish(shared, getAsOf());
+    }
+
+    /**
+     * Copies the last commit of each index to a new snapshot in the given directory and makes it the latest one.
+     * Writes to the index wait while its files are copied.
+     *
+     * @param asOf epoch milliseconds up to which the index contains all changes of the database; 0 if unknown
+     * @return the version of the snapshot
+     */
+    synchronized long publish(Path shared, long asOf) {
+        try {
+            Files.createDirectories(shared);
+            long version = Math.max(System.currentTimeMillis(), readLatestVersion(shared) + 1);
+            Path staging = shared.resolve(SNAPSHOT_PREFIX + version + STAGING_SUFFIX);
+            Properties manifest = new Properties();
+            manifest.setProperty(AS_OF_KEY, String.valueOf(asOf));
+            for (Class<?> type : INDEXED_TYPES) {
+                copyLatestCommit(requireIndexManager(type), staging.resolve(type.getName()), type.getName(), manifest);
+            }
+            try (OutputStream out = Files.newOutputStream(staging.resolve(MANIFEST_FILE))) {
+                manifest.store(out, "Search index snapshot " + version);
+            }
+            Files.move(staging, shared.resolve(SNAPSHOT_PREFIX + version), StandardCopyOption.ATOMIC_MOVE);
+            Path latest = shared.resolve(LATEST_FILE + STAGING_SUFFIX);
+            Files.write(latest, String.valueOf(version).getBytes(StandardCharsets.UTF_8));
+            Files.move(latest, shared.resolve(LATEST_FILE), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            currentVersion = version;
+            log.info("Published search index snapshot " + version + " to " + shared);
+            deleteOldSnapshots(shared);
+            return version;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Installs the latest snapshot of the given directory, unless this instance already has it.
+     *
+     * @return true if a snapshot was installed
+     */
+    synchronized boolean installLatest(Path shared) {
+        long version = readLatestVersion(shared);
+        if (version <= currentVersion) {
+            return false;
+        }
+        install(shared, version);
+        return true;
+    }
+
+    /**
+     * Replaces the indexes with the ones of the given snapshot and indexes the skills modified since it was built
+     * again. All files are verified before any index is replaced; If a checksum doesn't match, the indexes are left
+     * unchanged.
+     */
+    synchronized void install(Path shared, long version) {
+        Path snapshot = shared.resolve(SNAPSHOT_PREFIX + version);
+        Properties manifest = new Properties();
+        Path staging = null;
+        try {
+            try (InputStream in = Files.newInputStream(snapshot.resolve(MANIFEST_FILE))) {
+                manifest.load(in);
+            }
+            staging = Files.createTempDirectory("skill-index-snapshot-");
+            for (Class<?> type : INDEXED_TYPES) {
+                copyVerified(snapshot.resolve(type.getName()), staging.resolve(type.getName()), type.getName(), manifest);
+            }
+            for (Class<?> type : INDEXED_TYPES) {
+                replaceIndex(requireIndexManager(type), staging.resolve(type.getName()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (staging != null) {
+                deleteRecursively(staging);
+            }
+        }
+        currentVersion = version;
+        skillSearchCache.invalidate();
+        long asOf = Long.parseLong(manifest.getProperty(AS_OF_KEY, "0"));
+        log.info("Installed search index snapshot " + version + " from " + shared + ", up to date as of " + asOf);
+        long updatedAt = System.currentTimeMillis();
+        List<Integer> modified = skillRepository.findIdsModifiedSince(asOf == 0 ? 0 : asOf - maxClockSkewMillis);
+        if (!modified.isEmpty()) {
+            log.info("Indexing " + modified.size() + " skills modified since the snapshot was built.");
+            skillSearcherService.reindexSkills(modified);
+        }
+        installedAsOf = updatedAt;
+        searchIndexMaintenanceService.checkConsistency(true);
+    }
+
+    /**
+     * @return the start of the last completed rebuild, or the time the index was updated after installing a snapshot,
+     * whichever is later; 0 if neither is known
+     */
+    private long getAsOf() {
+        IndexStatus rebuild = skillSearcherService.getSearchIndexStatus();
+        long rebuiltAsOf = rebuild.getState() == IndexStatus.State.COMPLETED ? rebuild.getStartedAt() : 0;
+        return Math.max(rebuiltAsOf, installedAsOf);
+    }
+
+    private DirectoryBasedIndexManager requireIndexManager(Class<?> type) {
+        return searchIndexMaintenanceService.getIndexManager(type)
+                .orElseThrow(() -> new IllegalStateException("Index of " + type.getName() + " is not kept in a directory"));
+    }
+
+    private static void copyLatestCommit(DirectoryBasedIndexManager indexManager, Path target, String indexName,
+                                         Properties manifest) throws IOException {
+        Files.createDirectories(target);
+        // The files of the commit are not deleted as long as there is no newer commit
+        Lock lock = indexManager.getDirectoryModificationLock();
+        lock.lock();
+        try {
+            Directory directory = indexManager.getDirectoryProvider().getDirectory();
+            for (String file : SegmentInfos.readLatestCommit(directory).files(true)) {
+                manifest.setProperty(indexName + "/" + file, copy(directory, file, target.resolve(file)));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the SHA-256 checksum of the file
+     */
+    private static String copy(Directory directory, String file, Path target) throws IOException {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (IndexInput in = directory.openInput(file, IOContext.READONCE);
+             OutputStream out = Files.newOutputStream(target)) {
+            for (long remaining = in.length(); remaining > 0; ) {
+                int length = (int) Math.min(buffer.length, remaining);
+                in.readBytes(buffer, 0, length);
+                digest.update(buffer, 0, length);
+                out.write(buffer, 0, length);
+                remaining -= length;
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    private static void copyVerified(Path source, Path target, String indexName, Properties manifest) throws IOException {
+        Files.createDirectories(target);
+        String prefix = indexName + "/";
+        for (String key : manifest.stringPropertyNames()) {
+            if (!key.startsWith(prefix)) {
+                continue;
+            }
+            String file = key.substring(prefix.length());
+            MessageDigest digest = sha256();
+            try (InputStream in = new DigestInputStream(Files.newInputStream(source.resolve(file)), digest)) {
+                Files.copy(in, target.resolve(file));
+            }
+            if (!toHex(digest.digest()).equals(manifest.getProperty(key))) {
+                throw new IOException("Checksum of " + source.resolve(file) + " does not match the manifest");
+            }
+        }
+    }
+
+    /**
+     * Replaces the index with the given one in a single commit. Hibernate Search's index writer is closed first, and
+     * opened again with the next change.
+     */
+    private static void replaceIndex(DirectoryBasedIndexManager indexManager, Path source) throws IOException {
+        Lock lock = indexManager.getDirectoryModificationLock();
+        lock.lock();
+        try (Directory snapshot = FSDirectory.open(source)) {
+            indexManager.flushAndReleaseResources();
+            // Documents are only copied, never analyzed
+            IndexWriterConfig config = new IndexWriterConfig(new KeywordAnalyzer())
+                    .setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+            try (IndexWriter writer = new IndexWriter(indexManager.getDirectoryProvider().getDirectory(), config)) {
+                writer.addIndexes(snapshot);
+                writer.commit();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static long readLatestVersion(Path shared) {
+        Path latest = shared.resolve(LATEST_FILE);
+        if (!Files.exists(latest)) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(new String(Files.readAllBytes(latest), StandardCharsets.UTF_8).trim());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Keeps the newest snapshots, which other instances may still be copying.
+     */
+    private void deleteOldSnapshots(Path shared) throws IOException {
+        List<Path> snapshots;
+        try (Stream<Path> files = Files.list(shared)) {
+            snapshots = files
+                    .filter(path -> path.getFileName().toString().startsWith(SNAPSHOT_PREFIX))
+                    .filter(path -> !path.getFileName().toString().endsWith(STAGING_SUFFIX))
+                    .sorted(Comparator.comparingLong(IndexSnapshotService::versionOf).reversed())
+                    .collect(Collectors.toList());
+        }
+        snapshots.stream().skip(keep).forEach(IndexSnapshotService::deleteRecursively);
+    }
+
+    private static long versionOf(Path snapshot) {
+        return Long.parseLong(snapshot.getFileName().toString().substring(SNAPSHOT_PREFIX.length()));
+    }
+
+    private static void deleteRecursively(Path directory) {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            log.warn("Could not delete " + directory + ": " + e);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
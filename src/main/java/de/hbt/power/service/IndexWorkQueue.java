@@ -0,0 +1,371 @@
+package de.hbt.power.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.log4j.Log4j2;
+import org.hibernate.search.backend.IndexingMonitor;
+import org.hibernate.search.backend.LuceneWork;
+import org.hibernate.search.indexes.spi.IndexManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Applies the index changes of committed transactions on a background thread, so writing skills doesn't wait for the
+ * search index. Used by {@link AsyncIndexBackend} in the mode <code>async</code>; In the mode <code>sync</code> the
+ * changes are applied at commit, as before.
+ * <p>
+ * The queue holds a bounded number of change sets (one per transaction). The worker applies up to
+ * <code>batch-size</code> of them with a single commit of the index, waiting up to <code>flush-interval</code> ms for
+ * a batch to fill up. If the queue is full, the committing thread waits for space, so writers are slowed down instead
+ * of changes being lost or reordered. Changes that fail are retried after <code>retry-delay</code> ms, doubling the
+ * delay with every attempt, and dropped after <code>max-retries</code> attempts; Only a rebuild of the index restores
+ * them then. If the worker is interrupted while waiting for a retry, the changes stay pending and are applied first
+ * when the worker continues, or at shutdown. The {@link SkillSearchCache} is cleared after each batch,
+ * as results cached between the commit and the batch don't contain its changes.
+ * </p>
+ * <p>
+ * Reports <code>skill.search.index.queue.depth</code>, <code>skill.search.index.queue.lag</code> (age of the oldest
+ * pending change set), <code>skill.search.index.queue.full</code> (change sets that had to wait for space) and
+ * <code>skill.search.index.work</code> with the tag <code>result=applied|retried|dropped</code>.
+ * </p>
+ */
+@Component
+// Shut down before the entity manager factory, so pending changes can still be applied
+@DependsOn("entityManagerFactory")
+@Log4j2
+public class IndexWorkQueue implements MeterBinder {
+
+    static final String MODE_ASYNC = "async";
+
+    /**
+     * How long the idle worker waits for changes before checking whether it is shut down
+     */
+    private static final long POLL_MILLIS = 100;
+
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 30_000;
+
+    /**
+     * Upper bound of the growing delay between retries
+     */
+    private static final long MAX_RETRY_DELAY_MILLIS = 30_000;
+
+    private final boolean async;
+
+    private final BlockingQueue<Task> queue;
+
+    private final int batchSize;
+
+    private final long flushIntervalMillis;
+
+    private final int maxRetries;
+
+    private final long retryDelayMillis;
+
+    private final SkillSearchCache skillSearchCache;
+
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong full = new AtomicLong();
+
+    /**
+     * Submitted change sets that are not applied yet, including the ones taken by the worker; Guarded by
+     * <code>this</code>
+     */
+    private long pending = 0;
+
+    /**
+     * Change sets taken from the queue whose retries were interrupted, oldest first; They are applied before the
+     * change sets still in the queue. Guarded by <code>this</code>
+     */
+    private final List<Task> deferred = new ArrayList<>();
+
+    /**
+     * The oldest change set of the batch the worker is applying, <code>null</code> while it is idle
+     */
+    private volatile Task inFlight;
+
+    private volatile boolean running;
+
+    private final Thread worker;
+
+    @Autowired
+    public IndexWorkQueue(SkillSearchCache skillSearchCache,
+                          @Value("${skill-search.index.worker.mode:sync}") String mode,
+                          @Value("${skill-search.index.worker.queue-size:1000}") int queueSize,
+                          @Value("${skill-search.index.worker.batch-size:100}") int batchSize,
+                          @Value("${skill-search.index.worker.flush-interval:100}") long flushIntervalMillis,
+                          @Value("${skill-search.index.worker.max-retries:3}") int maxRetries,
+                          @Value("${skill-search.index.worker.retry-delay:100}") long retryDelayMillis) {
+        this.async = MODE_ASYNC.equalsIgnoreCase(mode);
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.maxRetries = maxRetries;
+        this.retryDelayMillis = retryDelayMillis;
+        this.skillSearchCache = skillSearchCache;
+        this.worker = new Thread(this::work, "Skill-Index-Worker");
+        this.worker.setDaemon(true);
+        if (async) {
+            running = true;
+            worker.start();
+        }
+    }
+
+    /**
+     * Applies the remaining changes; Changes submitted from now on are applied at commit.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        if (async) {
+            worker.join(SHUTDOWN_TIMEOUT_MILLIS);
+        }
+        List<Task> remaining = new ArrayList<>();
+        takeDeferred(remaining);
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            apply(remaining);
+        }
+        synchronized (this) {
+            if (!deferred.isEmpty()) {
+                log.error("Shut down before " + deferred.size() + " change sets could be applied to the search index;"
+                        + " Rebuild the search index to restore them.");
+            }
+        }
+    }
+
+    /**
+     * Queues the changes of a committed transaction. Waits while the queue is full. In the mode <code>sync</code>, and
+     * after the shutdown, the changes are applied right away.
+     */
+    void submit(IndexManager indexManager, List<LuceneWork> work, IndexingMonitor monitor) {
+        if (!running) {
+            indexManager.performOperations(work, monitor);
+            return;
+        }
+        Task task = new Task(indexManager, work, monitor);
+        synchronized (this) {
+            pending++;
+        }
+        if (!queue.offer(task)) {
+            full.incrementAndGet();
+            log.debug("Index queue is full, waiting for space.");
+            putUninterruptibly(task);
+        }
+    }
+
+    /**
+     * Waits until all changes submitted so far are applied, e.g. before searching for them in a test.
+     *
+     * @return false if the timeout elapsed first
+     */
+    public synchronized boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (pending > 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("skill.search.index.queue.depth", queue, BlockingQueue::size)
+                .description("Change sets waiting to be applied to the search index")
+                .register(registry);
+        Gauge.builder("skill.search.index.queue.lag", this, IndexWorkQueue::getLagMillis)
+                .description("Age of the oldest change set that is not applied to the search index yet")
+                .baseUnit("milliseconds")
+                .register(registry);
+        FunctionCounter.builder("skill.search.index.queue.full", full, AtomicLong::get)
+                .description("Change sets whose transaction had to wait for space in the queue")
+                .register(registry);
+        workCounter(registry, "applied", applied, "Change sets applied to the search index");
+        workCounter(registry, "retried", retried, "Change sets that failed and were retried");
+        workCounter(registry, "dropped", dropped, "Change sets that failed too often and were dropped");
+    }
+
+    private static void workCounter(MeterRegistry registry, String result, AtomicLong counter, String description) {
+        FunctionCounter.builder("skill.search.index.work", counter, AtomicLong::get)
+                .tag("result", result)
+                .description(description)
+                .register(registry);
+    }
+
+    long getLagMillis() {
+        Task oldest = inFlight;
+        if (oldest == null) {
+            oldest = queue.peek();
+        }
+        return oldest == null ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.enqueuedNanos);
+    }
+
+    private void putUninterruptibly(Task task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    queue.put(task);
+                    return;
+                } catch (InterruptedException e) {
+                    // Giving up would lose the changes, and applying them here could overtake older ones
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void work() {
+        List<Task> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                takeDeferred(batch);
+                if (batch.isEmpty()) {
+                    Task first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                }
+                queue.drainTo(batch, batchSize - batch.size());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+                while (batch.size() < batchSize) {
+                    Task next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, batchSize - batch.size());
+                }
+            } catch (InterruptedException e) {
+                log.warn("Index worker was interrupted.");
+            }
+            if (Thread.interrupted()) {
+                // Not noticed while waiting, e.g. because the batch was full; Don't let it cut the next retries short
+                log.warn("Index worker was interrupted.");
+            }
+            if (!batch.isEmpty()) {
+                apply(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private synchronized void takeDeferred(List<Task> batch) {
+        batch.addAll(deferred);
+        deferred.clear();
+    }
+
+    private void apply(List<Task> batch) {
+        inFlight = batch.get(0);
+        // Consecutive change sets of the same index are applied together, with one commit
+        int start = 0;
+        try {
+            for (int i = 1; i <= batch.size(); i++) {
+                if (i == batch.size() || !batch.get(i).hasSameTarget(batch.get(start))) {
+                    if (!applyWithRetries(batch.subList(start, i))) {
+                        break;
+                    }
+                    start = i;
+                }
+            }
+        } finally {
+            skillSearchCache.invalidate();
+            inFlight = null;
+            synchronized (this) {
+                // Change sets that were neither applied nor dropped stay pending
+                deferred.addAll(batch.subList(start, batch.size()));
+                pending -= start;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return false if the retries were interrupted; The changes are neither applied nor dropped then
+     */
+    private boolean applyWithRetries(List<Task> tasks) {
+        IndexManager indexManager = tasks.get(0).indexManager;
+        List<LuceneWork> work = tasks.stream()
+                .flatMap(task -> task.work.stream())
+                .collect(Collectors.toList());
+        for (int attempt = 0; ; attempt++) {
+            try {
+                indexManager.performOperations(work, tasks.get(0).monitor);
+                applied.addAndGet(tasks.size());
+                return true;
+            } catch (RuntimeException e) {
+                if (attempt >= maxRetries) {
+                    dropped.addAndGet(tasks.size());
+                    log.error("Dropped " + work.size() + " changes of the index " + indexManager.getIndexName()
+                            + " after " + attempt + " retries; Rebuild the search index to restore them.", e);
+                    return true;
+                }
+                retried.addAndGet(tasks.size());
+                long delay = Math.min(retryDelayMillis << Math.min(attempt, 20), MAX_RETRY_DELAY_MILLIS);
+                log.warn("Could not apply " + work.size() + " changes to the index " + indexManager.getIndexName()
+                        + ", retrying in " + delay + " ms: " + e);
+                if (!sleepBeforeRetry(delay)) {
+                    log.warn("Interrupted while waiting to retry, keeping " + work.size() + " changes to the index "
+                            + indexManager.getIndexName() + " pending.");
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return false if the thread was interrupted
+     */
+    private static boolean sleepBeforeRetry(long delayMillis) {
+        try {
+            Thread.sleep(delayMillis);
+            return true;
+        } catch (InterruptedException e) {
+            // The worker notices the interruption when it waits for changes next
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * The changes of one transaction to one index
+     */
+    private static final class Task {
+        private final IndexManager indexManager;
+        private final List<LuceneWork> work;
+        private final IndexingMonitor monitor;
+        private final long enqueuedNanos = System.nanoTime();
+
+        private Task(IndexManager indexManager, List<LuceneWork> work, IndexingMonitor monitor) {
+            this.indexManager = indexManager;
+            this.work = work;
+            this.monitor = monitor;
+        }
+
+        private boolean hasSameTarget(Task other) {
+            return indexManager == other.indexManager && monitor == other.monitor;
+        }
+    }
+}
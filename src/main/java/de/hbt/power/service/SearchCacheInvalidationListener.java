@@ -0,0 +1,36 @@
+package de.hbt.power.service;
+
+import de.hbt.power.model.LocalizedQualifier;
+import de.hbt.power.model.Skill;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+/**
+ * Invalidates the {@link SkillSearchCache} whenever a {@link Skill} or {@link LocalizedQualifier} is written.
+ */
+public class SearchCacheInvalidationListener {
+
+    /**
+     * Resolved lazily, like in {@link EffectiveBlacklistListener}
+     */
+    private final ObjectProvider<SkillSearchCache> skillSearchCache;
+
+    @Autowired
+    public SearchCacheInvalidationListener(ObjectProvider<SkillSearchCache> skillSearchCache) {
+        this.skillSearchCache = skillSearchCache;
+    }
+
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void changed(Object entity) {
+        SkillSearchCache cache = skillSearchCache.getIfAvailable();
+        if (cache != null) {
+            cache.invalidateAfterCommit();
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package de.hbt.power.service;
+
+import de.hbt.power.model.LocalizedQualifier;
+import de.hbt.power.model.Skill;
+import de.hbt.power.model.dto.IndexConsistencyReport;
+import de.hbt.power.model.dto.IndexStatistics;
+import de.hbt.power.model.dto.IndexStatus;
+import de.hbt.power.model.search.SkillDocValuesBridge;
+import de.hbt.power.repo.SkillRepository;
+import lombok.extern.log4j.Log4j2;
+import org.apache.lucene.index.*;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.Bits;
+import org.hibernate.search.SearchFactory;
+import org.hibernate.search.indexes.IndexReaderAccessor;
+import org.hibernate.search.indexes.spi.DirectoryBasedIndexManager;
+import org.hibernate.search.indexes.spi.IndexManager;
+import org.hibernate.search.jpa.Search;
+import org.hibernate.search.spi.SearchIntegrator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Inspects and maintains the search index: Reports the segments of each index, merges them when incremental writes
+ * have split the index into too many segments or left too many deleted documents, and compares the skills in the
+ * index with the ones in the database.
+ */
+@Service
+@Log4j2
+public class SearchIndexMaintenanceService {
+
+    static final List<Class<?>> INDEXED_TYPES = Arrays.asList(Skill.class, LocalizedQualifier.class);
+
+    /**
+     * Field of the document ID, which Hibernate Search indexes and stores for the <code>@Id</code> property; Read for
+     * documents written before the doc values were introduced
+     */
+    private static final String DOCUMENT_ID_FIELD = "id";
+
+    private static final Set<String> DOCUMENT_ID_FIELDS = Collections.singleton(DOCUMENT_ID_FIELD);
+
+    /**
+     * How long a consistency check waits for the queued index changes to be applied
+     */
+    private static final long INDEX_QUEUE_TIMEOUT_MILLIS = 10_000;
+
+    private final SearchFactory searchFactory;
+
+    private final SkillRepository skillRepository;
+
+    private final SkillSearcherService skillSearcherService;
+
+    private final IndexWorkQueue indexWorkQueue;
+
+    private final int maxSegments;
+
+    private final double maxDeletedRatio;
+
+    @Autowired
+    public SearchIndexMaintenanceService(final EntityManagerFactory entityManagerFactory,
+                                         final SkillRepository skillRepository,
+                                         final SkillSearcherService skillSearcherService,
+                                         final IndexWorkQueue indexWorkQueue,
+                                         @Value("${skill-search.index.maintenance.max-segments:10}") final int maxSegments,
+                                         @Value("${skill-search.index.maintenance.max-deleted-ratio:0.2}") final double maxDeletedRatio) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            searchFactory = Search.getFullTextEntityManager(entityManager).getSearchFactory();
+        } finally {
+            entityManager.close();
+        }
+        this.skillRepository = skillRepository;
+        this.skillSearcherService = skillSearcherService;
+        this.indexWorkQueue = indexWorkQueue;
+        this.maxSegments = maxSegments;
+        this.maxDeletedRatio = maxDeletedRatio;
+    }
+
+    /**
+     * @return the segments of the last commit of each index
+     */
+    public List<IndexStatistics> getStatistics() {
+        return INDEXED_TYPES.stream()
+                .map(this::getStatistics)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Merges each index into a single segment, which also removes the deleted documents. Searches keep working while
+     * the indexes are merged, but writes to them wait.
+     *
+     * @return the segments after merging
+     */
+    public List<IndexStatistics> merge() {
+        INDEXED_TYPES.forEach(type -> {
+            log.info("Merging search index " + type.getName());
+            searchFactory.optimize(type);
+        });
+        return getStatistics();
+    }
+
+    /**
+     * Merges the indexes that have more than <code>max-segments</code> segments or more than
+     * <code>max-deleted-ratio</code> deleted documents. Skipped while the index is rebuilt.
+     */
+    @Scheduled(cron = "${skill-search.index.maintenance.merge-cron:-}")
+    public void mergeIfFragmented() {
+        if (isRebuilding()) {
+            log.info("Search index is being rebuilt, not merging it.");
+            return;
+        }
+        for (Class<?> type : INDEXED_TYPES) {
+            IndexStatistics statistics = getStatistics(type);
+            if (statistics.getSegmentCount() > maxSegments || statistics.getDeletedRatio() > maxDeletedRatio) {
+                log.info("Merging search index " + type.getName() + " with " + statistics.getSegmentCount()
+                        + " segments and " + statistics.getDeletedDocuments() + " deleted documents.");
+                searchFactory.optimize(type);
+            }
+        }
+    }
+
+    /**
+     * Compares the IDs of the skills in the database with the skill documents in the index, and optionally writes the
+     * skills that differ to the index again; Skills missing in the index are added, skills no longer in the database
+     * are removed and skills indexed more than once are replaced by a single document.
+     * <p>
+     * Only reads IDs, so it is much faster than a rebuild. Skills that are changed while the check runs may be
+     * reported as differences; Writing them again does no harm. The localized qualifiers are only checked as part of
+     * the skill documents.
+     * </p>
+     */
+    public IndexConsistencyReport checkConsistency(boolean repair) {
+        try {
+            if (!indexWorkQueue.awaitIdle(INDEX_QUEUE_TIMEOUT_MILLIS)) {
+                log.warn("Index work queue is not empty, queued skills may be reported as differences.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Set<Integer> databaseIds = new HashSet<>(skillRepository.findAllIds());
+        Map<Integer, Integer> indexedIds = countIndexedIds();
+        List<Integer> missing = databaseIds.stream()
+                .filter(id -> !indexedIds.containsKey(id))
+                .sorted()
+                .collect(Collectors.toList());
+        List<Integer> stale = indexedIds.keySet().stream()
+                .filter(id -> !databaseIds.contains(id))
+                .sorted()
+                .collect(Collectors.toList());
+        List<Integer> duplicated = indexedIds.entrySet().stream()
+                .filter(entry -> entry.getValue() > 1 && databaseIds.contains(entry.getKey()))
+                .map(Map.Entry::getKey)
+                .sorted()
+                .collect(Collectors.toList());
+        IndexConsistencyReport.IndexConsistencyReportBuilder report = IndexConsistencyReport.builder()
+                .databaseSkills(databaseIds.size())
+                .indexedDocuments(indexedIds.values().stream().mapToLong(Integer::longValue).sum())
+                .missing(missing)
+                .stale(stale)
+                .duplicated(duplicated);
+        List<Integer> differences = Stream.of(missing, stale, duplicated)
+                .flatMap(List::stream)
+                .collect(Collectors.toList());
+        if (repair && !differences.isEmpty()) {
+            log.info("Search index differs from the database: " + missing.size() + " missing, " + stale.size()
+                    + " stale and " + duplicated.size() + " duplicated skills. Indexing them again.");
+            skillSearcherService.reindexSkills(differences);
+            report.repaired(differences.size());
+        }
+        return report.build();
+    }
+
+    /**
+     * Checks the index and repairs the differences. Skipped while the index is rebuilt.
+     */
+    @Scheduled(cron = "${skill-search.index.maintenance.check-cron:-}")
+    public void checkAndRepair() {
+        if (isRebuilding()) {
+            log.info("Search index is being rebuilt, not checking it.");
+            return;
+        }
+        checkConsistency(true);
+    }
+
+    boolean isRebuilding() {
+        return skillSearcherService.getSearchIndexStatus().getState() == IndexStatus.State.RUNNING;
+    }
+
+    private IndexStatistics getStatistics(Class<?> type) {
+        IndexStatistics.IndexStatisticsBuilder statistics = IndexStatistics.builder().indexName(type.getName());
+        Optional<DirectoryBasedIndexManager> indexManager = getIndexManager(type);
+        if (!indexManager.isPresent()) {
+            return statistics.build();
+        }
+        Directory directory = indexManager.get().getDirectoryProvider().getDirectory();
+        try {
+            SegmentInfos segments = SegmentInfos.readLatestCommit(directory);
+            long maxDocuments = 0;
+            long deletedDocuments = 0;
+            long sizeInBytes = 0;
+            for (SegmentCommitInfo segment : segments) {
+                maxDocuments += segment.info.maxDoc();
+                deletedDocuments += segment.getDelCount();
+                sizeInBytes += segment.sizeInBytes();
+            }
+            return statistics
+                    .segmentCount(segments.size())
+                    .maxDocuments(maxDocuments)
+                    .deletedDocuments(deletedDocuments)
+                    .deletedRatio(maxDocuments == 0 ? 0 : (double) deletedDocuments / maxDocuments)
+                    .sizeInBytes(sizeInBytes)
+                    .build();
+        } catch (IndexNotFoundException e) {
+            // Nothing was written to the index yet
+            return statistics.build();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the index manager of the given type, unless its index is not kept in a Lucene directory
+     */
+    Optional<DirectoryBasedIndexManager> getIndexManager(Class<?> type) {
+        IndexManager indexManager = searchFactory.unwrap(SearchIntegrator.class).getIndexManager(type.getName());
+        return indexManager instanceof DirectoryBasedIndexManager
+                ? Optional.of((DirectoryBasedIndexManager) indexManager)
+                : Optional.empty();
+    }
+
+    /**
+     * @return the number of live documents per skill ID
+     */
+    private Map<Integer, Integer> countIndexedIds() {
+        IndexReaderAccessor readers = searchFactory.getIndexReaderAccessor();
+        IndexReader reader = readers.open(Skill.class);
+        try {
+            Map<Integer, Integer> counts = new HashMap<>();
+            for (LeafReaderContext leaf : reader.leaves()) {
+                LeafReader leafReader = leaf.reader();
+                Bits liveDocs = leafReader.getLiveDocs();
+                NumericDocValues ids = DocValues.getNumeric(leafReader, SkillDocValuesBridge.ID_FIELD);
+                Bits hasId = DocValues.getDocsWithField(leafReader, SkillDocValuesBridge.ID_FIELD);
+                for (int doc = 0; doc < leafReader.maxDoc(); doc++) {
+                    if (liveDocs != null && !liveDocs.get(doc)) {
+                        continue;
+                    }
+                    String id = hasId.get(doc)
+                            ? String.valueOf(ids.get(doc))
+                            : leafReader.document(doc, DOCUMENT_ID_FIELDS).get(DOCUMENT_ID_FIELD);
+                    if (id != null) {
+                        counts.merge(Integer.valueOf(id), 1, Integer::sum);
+                    }
+                }
+            }
+            return counts;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            readers.close(reader);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package de.hbt.power.service;
+
+import de.hbt.power.model.dto.IndexStatus;
+import org.hibernate.search.batchindexing.MassIndexerProgressMonitor;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One run of the mass indexer. Tracks the progress reported by the indexer threads, so it can be queried while the
+ * rebuild is running.
+ */
+class SearchIndexRebuild implements MassIndexerProgressMonitor {
+
+    private final long startedAt = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+
+    private volatile long finishedAt;
+    private volatile long finishedNanos;
+
+    private volatile Future<?> future;
+
+    void started(Future<?> future) {
+        this.future = future;
+    }
+
+    boolean isDone() {
+        return future == null || future.isDone();
+    }
+
+    void await() throws InterruptedException, ExecutionException {
+        if (future != null) {
+            future.get();
+        }
+    }
+
+    @Override
+    public void documentsAdded(long increment) {
+        processed.addAndGet(increment);
+    }
+
+    @Override
+    public void documentsBuilt(int number) {
+        // Counted once they are added to the index
+    }
+
+    @Override
+    public void entitiesLoaded(int size) {
+        // Counted once they are added to the index
+    }
+
+    @Override
+    public void addToTotalCount(long count) {
+        total.addAndGet(count);
+    }
+
+    @Override
+    public void indexingCompleted() {
+        finishedNanos = System.nanoTime();
+        finishedAt = System.currentTimeMillis();
+    }
+
+    IndexStatus toStatus() {
+        long documentsProcessed = processed.get();
+        long documentsTotal = Math.max(total.get(), documentsProcessed);
+        boolean done = isDone();
+        long endNanos = done && finishedNanos != 0 ? finishedNanos : System.nanoTime();
+        double seconds = (endNanos - startNanos) / 1_000_000_000.0;
+        double documentsPerSecond = seconds > 0 ? documentsProcessed / seconds : 0;
+        IndexStatus.IndexStatusBuilder status = IndexStatus.builder()
+                .state(IndexStatus.State.RUNNING)
+                .startedAt(startedAt)
+                .documentsTotal(documentsTotal)
+                .documentsProcessed(documentsProcessed)
+                .documentsPerSecond(documentsPerSecond);
+        if (!done) {
+            if (documentsPerSecond > 0) {
+                status.etaSeconds(Math.round((documentsTotal - documentsProcessed) / documentsPerSecond));
+            }
+            return status.build();
+        }
+        status.finishedAt(finishedAt != 0 ? finishedAt : System.currentTimeMillis());
+        try {
+            await();
+            return status.state(IndexStatus.State.COMPLETED).build();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return status.state(IndexStatus.State.FAILED).error(e.toString()).build();
+        } catch (ExecutionException e) {
+            return status.state(IndexStatus.State.FAILED).error(String.valueOf(e.getCause())).build();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package de.hbt.power.service;
+
+import de.hbt.power.model.search.SkillDocValuesBridge;
+import lombok.Value;
+import org.apache.lucene.index.*;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the values of skill documents from the doc values written by {@link SkillDocValuesBridge}. Bound to one
+ * index reader, and not thread-safe.
+ */
+class SkillDocValues {
+
+    private final List<LeafReaderContext> leaves;
+
+    SkillDocValues(IndexReader reader) {
+        this.leaves = reader.leaves();
+    }
+
+    /**
+     * @param doc ID of the document within the whole index reader
+     * @return the values of the document, or empty values if it has none (e.g. because it was indexed before the doc
+     * values were introduced)
+     */
+    SkillValues get(int doc) throws IOException {
+        LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+        LeafReader reader = leaf.reader();
+        int leafDoc = doc - leaf.docBase;
+        Integer id = numeric(reader, SkillDocValuesBridge.ID_FIELD, leafDoc);
+        BytesRef qualifier = DocValues.getSorted(reader, SkillDocValuesBridge.QUALIFIER_FIELD).get(leafDoc);
+        Integer categoryId = numeric(reader, SkillDocValuesBridge.CATEGORY_ID_FIELD, leafDoc);
+        List<LocalizedValue> localized = new ArrayList<>();
+        SortedSetDocValues localizedValues = DocValues.getSortedSet(reader, SkillDocValuesBridge.LOCALIZED_QUALIFIERS_FIELD);
+        localizedValues.setDocument(leafDoc);
+        for (long ord = localizedValues.nextOrd(); ord != SortedSetDocValues.NO_MORE_ORDS; ord = localizedValues.nextOrd()) {
+            String value = localizedValues.lookupOrd(ord).utf8ToString();
+            int separator = value.indexOf(SkillDocValuesBridge.LOCALE_SEPARATOR);
+            localized.add(new LocalizedValue(value.substring(0, separator), value.substring(separator + 1)));
+        }
+        return new SkillValues(id, qualifier.length == 0 ? null : qualifier.utf8ToString(), categoryId, localized);
+    }
+
+    private static Integer numeric(LeafReader reader, String field, int leafDoc) throws IOException {
+        if (!DocValues.getDocsWithField(reader, field).get(leafDoc)) {
+            return null;
+        }
+        return (int) DocValues.getNumeric(reader, field).get(leafDoc);
+    }
+
+    @Value
+    static class SkillValues {
+        private final Integer id;
+        private final String qualifier;
+        private final Integer categoryId;
+        /**
+         * Ordered by locale and qualifier
+         */
+        private final List<LocalizedValue> localizedQualifiers;
+    }
+
+    @Value
+    static class LocalizedValue {
+        private final String locale;
+        private final String qualifier;
+    }
+}
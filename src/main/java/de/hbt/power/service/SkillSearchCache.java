@@ -0,0 +1,183 @@
+package de.hbt.power.service;
+
+import de.hbt.power.model.dto.SkillSearchHit;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CacheMeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Bounded LRU cache for the results of {@link SkillSearcherService#search(SkillSearchQuery)}, keyed by the
+ * normalized query.
+ * <p>
+ * The cache is cleared whenever skills or localized qualifiers change or the search index is rebuilt. Each
+ * invalidation starts a new generation; Results of searches that started in an older generation are not stored, so a
+ * search that overlaps with a change can't put a stale result back into the cache.
+ * </p>
+ * <p>
+ * Reports its statistics as the <code>cache.*</code> meters with the tag <code>cache=skill-search</code>.
+ * </p>
+ */
+@Component
+public class SkillSearchCache implements MeterBinder {
+
+    private static final String CACHE_NAME = "skill-search";
+
+    private final int maxSize;
+
+    /**
+     * In access order, so the eldest entry is the least recently used one; Guarded by <code>this</code>
+     */
+    private final LinkedHashMap<SkillSearchQuery, List<SkillSearchHit>> entries;
+
+    private long generation = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long puts = 0;
+    private long evictions = 0;
+
+    @Autowired
+    public SkillSearchCache(@Value("${skill-search.cache.max-size:10000}") int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<SkillSearchQuery, List<SkillSearchHit>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<SkillSearchQuery, List<SkillSearchHit>> eldest) {
+                if (size() > SkillSearchCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public synchronized Optional<List<SkillSearchHit>> get(SkillSearchQuery query) {
+        List<SkillSearchHit> result = entries.get(query.normalized());
+        if (result == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return Optional.ofNullable(result);
+    }
+
+    /**
+     * @return the current generation, to be passed to {@link #put} with the result of a search started now
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Stores the result of a search, unless the cache was invalidated since the search started.
+     */
+    public synchronized void put(long generation, SkillSearchQuery query, List<SkillSearchHit> result) {
+        if (maxSize > 0 && generation == this.generation) {
+            entries.put(query.normalized(), result);
+            puts++;
+        }
+    }
+
+    public synchronized void invalidate() {
+        generation++;
+        entries.clear();
+    }
+
+    /**
+     * Invalidates the cache now and, if a transaction is active, again once it is committed, when its changes have
+     * reached the search index.
+     */
+    public void invalidateAfterCommit() {
+        invalidate();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    invalidate();
+                }
+            });
+        }
+    }
+
+    @EventListener
+    public void catalogChanged(CatalogChangedEvent event) {
+        invalidate();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized double hitRatio() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        new Metrics(this).bindTo(registry);
+    }
+
+    private static class Metrics extends CacheMeterBinder {
+
+        private final SkillSearchCache cache;
+
+        private Metrics(SkillSearchCache cache) {
+            super(cache, CACHE_NAME, Tags.empty());
+            this.cache = cache;
+        }
+
+        @Override
+        protected Long size() {
+            return (long) cache.size();
+        }
+
+        @Override
+        protected long hitCount() {
+            synchronized (cache) {
+                return cache.hits;
+            }
+        }
+
+        @Override
+        protected Long missCount() {
+            synchronized (cache) {
+                return cache.misses;
+            }
+        }
+
+        @Override
+        protected Long evictionCount() {
+            synchronized (cache) {
+                return cache.evictions;
+            }
+        }
+
+        @Override
+        protected long putCount() {
+            synchronized (cache) {
+                return cache.puts;
+            }
+        }
+
+        @Override
+        protected void bindImplementationSpecificMetrics(MeterRegistry registry) {
+            Gauge.builder("cache.hit.ratio", cache, SkillSearchCache::hitRatio)
+                    .tags(getTagsWithCacheName())
+                    .description("Share of lookups that were answered from the cache")
+                    .register(registry);
+        }
+    }
+}
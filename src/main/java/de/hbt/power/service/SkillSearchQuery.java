@@ -0,0 +1,49 @@
+package de.hbt.power.service;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.util.Locale;
+
+/**
+ * Parameters of a skill search. Equal queries have equal results, so queries are also the keys of the
+ * {@link SkillSearchCache}.
+ */
+@Value
+@Builder(toBuilder = true)
+public class SkillSearchQuery {
+
+    private final String term;
+
+    private final int maxResults;
+
+    /**
+     * ISO 639-2 code of the language to prefer, e.g. <code>deu</code>; <code>null</code> to search the qualifiers of
+     * all languages alike
+     */
+    private final String locale;
+
+    /**
+     * ID of the category to search below, including its own skills; <code>null</code> to search all skills
+     */
+    private final Integer categoryId;
+
+    /**
+     * Whether to find skills in blacklisted categories as well
+     */
+    private final boolean includeBlacklisted;
+
+    public static SkillSearchQuery of(String term, int maxResults) {
+        return builder().term(term).maxResults(maxResults).build();
+    }
+
+    /**
+     * @return this query with the search term trimmed and lower cased, which does not change its result
+     */
+    public SkillSearchQuery normalized() {
+        return toBuilder()
+                .term(term == null ? null : term.trim().toLowerCase(Locale.ROOT))
+                .locale(locale == null ? null : locale.toLowerCase(Locale.ROOT))
+                .build();
+    }
+}
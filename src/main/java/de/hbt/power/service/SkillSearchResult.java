@@ -0,0 +1,24 @@
+package de.hbt.power.service;
+
+import de.hbt.power.model.dto.SkillSearchHit;
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Hits of a skill search, and whether the search was cut short by its time budget.
+ */
+@Value
+public class SkillSearchResult {
+
+    private final List<SkillSearchHit> hits;
+
+    /**
+     * <code>true</code> if the search ran out of time; The hits are the best ones found until then
+     */
+    private final boolean truncated;
+
+    public static SkillSearchResult complete(List<SkillSearchHit> hits) {
+        return new SkillSearchResult(hits, false);
+    }
+}
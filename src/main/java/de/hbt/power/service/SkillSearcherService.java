@@ -1,88 +1,872 @@
 package de.hbt.power.service;
 
+import de.hbt.power.exception.SkillServiceException;
+import de.hbt.power.model.LocalizedQualifier;
 import de.hbt.power.model.Skill;
-import lombok.SneakyThrows;
+import de.hbt.power.model.dto.IndexStatus;
+import de.hbt.power.model.dto.SkillSearchBatchResult;
+import de.hbt.power.model.dto.SkillSearchHit;
+import de.hbt.power.model.tree.CategoryEntry;
+import de.hbt.power.model.tree.SkillEntry;
+import de.hbt.power.model.tree.SkillTreeSnapshot;
+import de.hbt.power.repo.SkillRepository;
+import de.hbt.power.service.SkillDocValues.LocalizedValue;
+import de.hbt.power.service.SkillDocValues.SkillValues;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import lombok.extern.log4j.Log4j2;
 
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LRUQueryCache;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryCachingPolicy;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TimeLimitingCollector;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.UsageTrackingQueryCachingPolicy;
+import org.hibernate.CacheMode;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.search.SearchFactory;
 import org.hibernate.search.exception.EmptyQueryException;
+import org.hibernate.search.indexes.IndexReaderAccessor;
 import org.hibernate.search.jpa.FullTextEntityManager;
 import org.hibernate.search.jpa.Search;
 import org.hibernate.search.query.dsl.QueryBuilder;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.StringUtils;
 
+import javax.annotation.PreDestroy;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import static java.util.Collections.emptyList;
 
 @Service
 @Log4j2
-public class SkillSearcherService {
+public class SkillSearcherService implements MeterBinder {
 
-    private final EntityManager entityManager;
+    static final String ENGINE_TRIE = "trie";
+
+    /**
+     * How long a rebuild of the index waits for the queued index changes to be applied
+     */
+    private static final long INDEX_QUEUE_TIMEOUT_MILLIS = 10_000;
+
+    private static final String QUALIFIER_FIELD = "qualifier";
+
+    private static final String LOCALIZED_QUALIFIER_FIELD = "qualifiers.qualifier";
+
+    private static final String LOCALE_FIELD = "qualifiers.locale";
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+
+    private static final Pattern WORD_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    /**
+     * Boost of matches on localized qualifiers in the requested language
+     */
+    private static final float LOCALIZED_BOOST = 2f;
+
+    private static final String EMBEDDED_PREFIX_FIELD = "qualifiers." + Skill.PREFIX_FIELD;
+
+    /**
+     * Filters cached per index segment, and the memory they may use
+     */
+    private static final int FILTER_CACHE_SIZE = 64;
+
+    private static final long FILTER_CACHE_MAX_BYTES = 16 * 1024 * 1024;
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    /**
+     * Thread-safe and shared by all searches; Its index readers are reopened whenever the index has changed
+     */
+    private final SearchFactory searchFactory;
+
+    /**
+     * Bound to the current transaction
+     */
+    private final EntityManager transactionalEntityManager;
+
+    private final SkillTypeaheadService skillTypeaheadService;
+
+    /**
+     * Engine used by {@link #searchSkill(String, int)}: <code>lucene</code> or <code>trie</code>
+     */
+    private final String engine;
+
+    /**
+     * Lucene searches fall back to fuzzy matching if the prefix search found fewer skills than this
+     */
+    private final int minPrefixHits;
+
+    private final SkillRepository skillRepository;
+
+    /**
+     * Entities loaded per batch, by the mass indexer and by {@link #reindexSkills(Collection)}
+     */
+    private final int batchSize;
+
+    /**
+     * JDBC fetch size used by the mass indexer to read the IDs of all entities
+     */
+    private final int idFetchSize;
+
+    private final int loaderThreads;
+
+    private final SkillSearchCache skillSearchCache;
+
+    private final SkillTreeSnapshotService skillTreeSnapshotService;
+
+    /**
+     * Current or last rebuild of the search index; Written while holding <code>this</code>
+     */
+    private volatile SearchIndexRebuild rebuild;
+
+    /**
+     * Holds the bitsets of the blacklist filter for each index segment. Segments that did not change since a search
+     * keep their bitsets, so most searches don't evaluate the filter at all.
+     */
+    private final LRUQueryCache filterCache = new LRUQueryCache(FILTER_CACHE_SIZE, FILTER_CACHE_MAX_BYTES);
+
+    private final QueryCachingPolicy filterCachingPolicy = new BlacklistFilterCachingPolicy();
+
+    /**
+     * Filter for the skills in blacklisted categories, built from the blacklist of the skill tree snapshot
+     */
+    private volatile BlacklistFilter blacklistFilter = BlacklistFilter.EMPTY;
+
+    /**
+     * Runs the searches of {@link #searchBatch(List)}
+     */
+    private final ThreadPoolTaskExecutor batchExecutor;
+
+    /**
+     * Time in which all searches of a batch must be done
+     */
+    private final long batchTimeoutMillis;
+
+    private final int maxBatchTerms;
+
+    /**
+     * Time budget of a single search, in milliseconds; Hits found until then are returned as a truncated result
+     */
+    private final long timeoutMillis;
+
+    /**
+     * Number of terms each word of a fuzzy query may expand to
+     */
+    private final int maxFuzzyExpansions;
+
+    private final IndexWorkQueue indexWorkQueue;
+
+    private final AtomicLong timeLimitHits = new AtomicLong();
+
+    private final AtomicLong fuzzyExpansionLimitHits = new AtomicLong();
 
     @Autowired
-    public SkillSearcherService(final EntityManagerFactory entityManagerFactory) {
-        entityManager = entityManagerFactory.createEntityManager();
+    public SkillSearcherService(final EntityManagerFactory entityManagerFactory, final EntityManager transactionalEntityManager,
+                                final SkillTypeaheadService skillTypeaheadService,
+                                final SkillRepository skillRepository,
+                                final SkillSearchCache skillSearchCache,
+                                final SkillTreeSnapshotService skillTreeSnapshotService,
+                                final IndexWorkQueue indexWorkQueue,
+                                @Value("${skill-search.engine:lucene}") final String engine,
+                                @Value("${skill-search.lucene.min-prefix-hits:5}") final int minPrefixHits,
+                                @Value("${skill-search.indexer.batch-size:100}") final int batchSize,
+                                @Value("${skill-search.indexer.id-fetch-size:1000}") final int idFetchSize,
+                                @Value("${skill-search.indexer.loader-threads:4}") final int loaderThreads,
+                                @Value("${skill-search.batch.threads:4}") final int batchThreads,
+                                @Value("${skill-search.batch.timeout:2000}") final long batchTimeoutMillis,
+                                @Value("${skill-search.batch.max-terms:200}") final int maxBatchTerms,
+                                @Value("${skill-search.lucene.timeout:500}") final long timeoutMillis,
+                                @Value("${skill-search.lucene.max-fuzzy-expansions:50}") final int maxFuzzyExpansions) {
+        this.entityManagerFactory = entityManagerFactory;
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            searchFactory = Search.getFullTextEntityManager(entityManager).getSearchFactory();
+        } finally {
+            entityManager.close();
+        }
+        this.transactionalEntityManager = transactionalEntityManager;
+        this.skillTypeaheadService = skillTypeaheadService;
+        this.engine = engine;
+        this.minPrefixHits = minPrefixHits;
+        this.skillRepository = skillRepository;
+        this.skillSearchCache = skillSearchCache;
+        this.skillTreeSnapshotService = skillTreeSnapshotService;
+        this.batchSize = batchSize;
+        this.idFetchSize = idFetchSize;
+        this.loaderThreads = loaderThreads;
+        this.batchTimeoutMillis = batchTimeoutMillis;
+        this.maxBatchTerms = maxBatchTerms;
+        this.timeoutMillis = timeoutMillis;
+        this.indexWorkQueue = indexWorkQueue;
+        this.maxFuzzyExpansions = maxFuzzyExpansions;
+        this.batchExecutor = new ThreadPoolTaskExecutor();
+        this.batchExecutor.setCorePoolSize(batchThreads);
+        this.batchExecutor.setMaxPoolSize(batchThreads);
+        this.batchExecutor.setThreadNamePrefix("Skill-Search-");
+        this.batchExecutor.initialize();
     }
 
+    @PreDestroy
+    public void shutdown() {
+        batchExecutor.shutdown();
+    }
+
+    /**
+     * Counts how often searches ran into their limits, as <code>skill.search.limit.hits</code> with the tag
+     * <code>limit=time</code> or <code>limit=fuzzy-expansions</code>.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("skill.search.limit.hits", timeLimitHits, AtomicLong::get)
+                .tag("limit", "time")
+                .description("Searches that ran out of time and returned the hits found until then")
+                .register(registry);
+        FunctionCounter.builder("skill.search.limit.hits", fuzzyExpansionLimitHits, AtomicLong::get)
+                .tag("limit", "fuzzy-expansions")
+                .description("Fuzzy searches whose terms expanded to more terms than allowed")
+                .register(registry);
+    }
+
+    long getTimeLimitHits() {
+        return timeLimitHits.get();
+    }
+
+    long getFuzzyExpansionLimitHits() {
+        return fuzzyExpansionLimitHits.get();
+    }
+
+    /**
+     * Removes the given skills and localized qualifiers from the search index. Used after deleting them with bulk
+     * statements, which bypass the automatic indexing. The removals are applied in one batch when the current
+     * transaction commits.
+     */
+    @Transactional
+    public void purgeFromIndex(Collection<Integer> skillIds, Collection<Integer> qualifierIds) {
+        FullTextEntityManager em = Search.getFullTextEntityManager(transactionalEntityManager);
+        skillIds.forEach(id -> em.purge(Skill.class, id));
+        qualifierIds.forEach(id -> em.purge(LocalizedQualifier.class, id));
+        skillSearchCache.invalidateAfterCommit();
+    }
+
+    /**
+     * Writes the current state of the given skills and their localized qualifiers to the search index, in batches.
+     * Skills that no longer exist are removed from the index. The skills loaded by a batch are detached once it is
+     * indexed; Entities the caller already had in the persistence context stay managed.
+     *
+     * @return the number of skills that were indexed
+     */
     @Transactional
-    @Async
-    @SneakyThrows
-    public void buildSearchIndex() {
-        buildSearchIndexSync();
+    public int reindexSkills(Collection<Integer> skillIds) {
+        FullTextEntityManager em = Search.getFullTextEntityManager(transactionalEntityManager);
+        // Pending changes are indexed as well
+        em.flush();
+        SessionImplementor session = em.unwrap(SessionImplementor.class);
+        EntityPersister skillPersister = session.getFactory().getMetamodel().entityPersister(Skill.class);
+        List<Integer> ids = new ArrayList<>(skillIds);
+        int indexed = 0;
+        for (int from = 0; from < ids.size(); from += batchSize) {
+            List<Integer> batch = ids.subList(from, Math.min(from + batchSize, ids.size()));
+            Set<Integer> missing = new HashSet<>(batch);
+            Set<Integer> managed = batch.stream()
+                    .filter(id -> session.getPersistenceContext().containsEntity(session.generateEntityKey(id, skillPersister)))
+                    .collect(Collectors.toSet());
+            List<Skill> loaded = skillRepository.findAllById(batch);
+            for (Skill skill : loaded) {
+                em.index(skill);
+                skill.getQualifiers().forEach(em::index);
+                missing.remove(skill.getId());
+                indexed++;
+            }
+            missing.forEach(id -> em.purge(Skill.class, id));
+            em.flushToIndexes();
+            // Also detaches the localized qualifiers of the skills
+            loaded.stream()
+                    .filter(skill -> !managed.contains(skill.getId()))
+                    .forEach(em::detach);
+        }
+        skillSearchCache.invalidateAfterCommit();
+        return indexed;
+    }
+
+    /**
+     * Starts rebuilding the whole search index in the background, unless a rebuild is already running.
+     *
+     * @return the status of the running rebuild
+     */
+    public IndexStatus buildSearchIndex() {
+        return startSearchIndexRebuild().toStatus();
+    }
+
+    /**
+     * Rebuilds the whole search index and waits until it is finished. Joins a rebuild that is already running
+     * instead of starting another one.
+     */
+    void buildSearchIndexSync() throws InterruptedException, ExecutionException {
+        startSearchIndexRebuild().await();
+    }
+
+    /**
+     * @return the status of the current or last rebuild of the search index
+     */
+    public synchronized IndexStatus getSearchIndexStatus() {
+        return rebuild == null ? new IndexStatus() : rebuild.toStatus();
     }
 
-    void buildSearchIndexSync() throws InterruptedException {
-        FullTextEntityManager em = Search.getFullTextEntityManager(entityManager);
-        em.createIndexer().startAndWait();
+    private synchronized SearchIndexRebuild startSearchIndexRebuild() {
+        if (rebuild != null && !rebuild.isDone()) {
+            log.info("Search index rebuild is already running.");
+            return rebuild;
+        }
+        awaitIndexWorkQueue();
+        SearchIndexRebuild newRebuild = new SearchIndexRebuild();
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            // The indexer only needs the entity manager to be created; It runs on its own threads and sessions
+            newRebuild.started(Search.getFullTextEntityManager(entityManager).createIndexer()
+                    .batchSizeToLoadObjects(batchSize)
+                    .idFetchSize(idFetchSize)
+                    .threadsToLoadObjects(loaderThreads)
+                    .cacheMode(CacheMode.IGNORE)
+                    .progressMonitor(newRebuild)
+                    .start());
+        } finally {
+            entityManager.close();
+        }
+        rebuild = newRebuild;
+        // Searches that see the cleared cache also see the running rebuild, and bypass the cache until it is done
+        skillSearchCache.invalidate();
+        return newRebuild;
+    }
+
+    /**
+     * The indexer purges the index and adds all skills without removing them first; Queued changes applied after the
+     * purge would add some skills twice.
+     */
+    private void awaitIndexWorkQueue() {
+        try {
+            if (!indexWorkQueue.awaitIdle(INDEX_QUEUE_TIMEOUT_MILLIS)) {
+                log.warn("Index work queue is not empty, rebuilding the search index anyway.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     public List<String> searchSkill(String searchTerm, int maxResults) {
-        if (StringUtils.isEmpty(searchTerm)) {
-            return emptyList();
+        return search(SkillSearchQuery.of(searchTerm, maxResults)).stream()
+                .map(SkillSearchHit::getQualifier)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Searches skills whose qualifier or localized qualifiers contain words starting with the words of the search
+     * term. Falls back to fuzzy matching if there are too few of them.
+     * <p>
+     * If a language is requested, only localized qualifiers in that language are searched besides the qualifier, and
+     * matches on them rank higher. The localized qualifiers of a skill are flattened into its document, so a skill
+     * with a qualifier in the requested language also matches through its qualifiers in other languages.
+     * </p>
+     * <p>
+     * If a category is given, only skills in that category or below it are found. Skills in blacklisted categories
+     * are not found, unless requested. The category paths are taken from the current skill tree snapshot, so no
+     * entities are loaded. The trie engine filters and completes its hits from the same snapshot; It matches the
+     * localized qualifiers of all languages and doesn't score its hits, the requested language only selects the
+     * returned localized qualifier.
+     * </p>
+     */
+    public List<SkillSearchHit> search(SkillSearchQuery query) {
+        return searchWithStatus(query).getHits();
+    }
+
+    /**
+     * Searches like {@link #search(SkillSearchQuery)}, within the time budget of a search. If the budget runs out,
+     * the best hits found until then are returned as a truncated result, which is not cached.
+     */
+    public SkillSearchResult searchWithStatus(SkillSearchQuery query) {
+        if (StringUtils.isEmpty(query.getTerm()) || query.getMaxResults() <= 0) {
+            return SkillSearchResult.complete(emptyList());
+        }
+        if (ENGINE_TRIE.equalsIgnoreCase(engine)) {
+            // Already in memory; Not cached, as the trie is updated asynchronously
+            return SkillSearchResult.complete(searchTrie(query));
+        }
+        long generation = skillSearchCache.getGeneration();
+        SearchIndexRebuild currentRebuild = rebuild;
+        if (currentRebuild != null && !currentRebuild.isDone()) {
+            // The index is incomplete until the rebuild is done
+            return searchLucene(query);
         }
+        Optional<List<SkillSearchHit>> cached = skillSearchCache.get(query);
+        if (cached.isPresent()) {
+            return SkillSearchResult.complete(cached.get());
+        }
+        SkillSearchResult result = searchLucene(query);
+        if (!result.isTruncated()) {
+            skillSearchCache.put(generation, query, Collections.unmodifiableList(result.getHits()));
+        }
+        return result;
+    }
+
+    /**
+     * Runs several searches at once. Searches that are not cached run in parallel, on the same index reader and skill
+     * tree snapshot. A search that is not done within the time budget of the batch is returned as incomplete, without
+     * hits, so a slow term doesn't hold up the others.
+     *
+     * @return the results in the order of the queries
+     */
+    public List<SkillSearchBatchResult> searchBatch(List<SkillSearchQuery> queries) {
+        if (queries.size() > maxBatchTerms) {
+            throw SkillServiceException.validationFailed("terms", "At most " + maxBatchTerms + " terms can be searched at once.");
+        }
+        long generation = skillSearchCache.getGeneration();
+        SearchIndexRebuild currentRebuild = rebuild;
+        boolean cacheable = currentRebuild == null || currentRebuild.isDone();
+        List<SkillSearchBatchResult> results = new ArrayList<>();
+        Map<Integer, SkillSearchQuery> pending = new LinkedHashMap<>();
+        for (SkillSearchQuery query : queries) {
+            Optional<List<SkillSearchHit>> cached = cacheable ? skillSearchCache.get(query) : Optional.empty();
+            if (cached.isPresent()) {
+                results.add(batchResult(query, SkillSearchResult.complete(cached.get())));
+            } else if (StringUtils.isEmpty(query.getTerm()) || query.getMaxResults() <= 0 || ENGINE_TRIE.equalsIgnoreCase(engine)) {
+                results.add(batchResult(query, searchWithStatus(query)));
+            } else {
+                pending.put(results.size(), query);
+                results.add(SkillSearchBatchResult.builder().term(query.getTerm()).hits(emptyList()).complete(false).build());
+            }
+        }
+        if (pending.isEmpty()) {
+            return results;
+        }
+        IndexReaderAccessor readers = searchFactory.getIndexReaderAccessor();
+        IndexReader reader = readers.open(Skill.class);
+        try {
+            IndexSearcher searcher = newSearcher(reader);
+            SkillTreeSnapshot snapshot = skillTreeSnapshotService.getSnapshot();
+            Map<Integer, Future<SkillSearchResult>> searches = new LinkedHashMap<>();
+            pending.forEach((index, query) -> searches.put(index, batchExecutor.submit(() -> searchLucene(searcher, query, snapshot))));
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchTimeoutMillis);
+            for (Map.Entry<Integer, Future<SkillSearchResult>> search : searches.entrySet()) {
+                SkillSearchQuery query = pending.get(search.getKey());
+                try {
+                    SkillSearchResult result = search.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    if (cacheable && !result.isTruncated()) {
+                        skillSearchCache.put(generation, query, Collections.unmodifiableList(result.getHits()));
+                    }
+                    results.set(search.getKey(), batchResult(query, result));
+                } catch (TimeoutException e) {
+                    log.warn("Search for '" + query.getTerm() + "' did not finish within " + batchTimeoutMillis + " ms.");
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException e) {
+                    searches.values().forEach(future -> future.cancel(true));
+                    throw e.getCause() instanceof RuntimeException
+                            ? (RuntimeException) e.getCause()
+                            : new IllegalStateException(e.getCause());
+                }
+            }
+            // Searches still running fail once the reader is closed; Their results are not needed anymore
+            searches.values().forEach(future -> future.cancel(true));
+            return results;
+        } finally {
+            readers.close(reader);
+        }
+    }
+
+    private static SkillSearchBatchResult batchResult(SkillSearchQuery query, SkillSearchResult result) {
+        return SkillSearchBatchResult.builder()
+                .term(query.getTerm())
+                .hits(result.getHits())
+                .complete(true)
+                .truncated(result.isTruncated())
+                .build();
+    }
+
+    /**
+     * Searches the skill index directly, without an entity manager, so searches can run concurrently. The index reader
+     * is shared between searches and only reopened if the index changed since it was opened.
+     */
+    private SkillSearchResult searchLucene(SkillSearchQuery query) {
+        IndexReaderAccessor readers = searchFactory.getIndexReaderAccessor();
+        IndexReader reader = readers.open(Skill.class);
         try {
-            return doSearch(searchTerm, maxResults);
+            return searchLucene(newSearcher(reader), query, skillTreeSnapshotService.getSnapshot());
+        } finally {
+            readers.close(reader);
+        }
+    }
+
+    private IndexSearcher newSearcher(IndexReader reader) {
+        IndexSearcher searcher = new IndexSearcher(reader);
+        searcher.setQueryCache(filterCache);
+        searcher.setQueryCachingPolicy(filterCachingPolicy);
+        return searcher;
+    }
+
+    private SkillSearchResult searchLucene(IndexSearcher searcher, SkillSearchQuery query, SkillTreeSnapshot snapshot) {
+        try {
+            SkillSearchResult result = doSearch(searcher, query, snapshot);
+            if (result.isTruncated()) {
+                timeLimitHits.incrementAndGet();
+                log.warn("Search for '" + query.getTerm() + "' ran out of time after " + timeoutMillis + " ms.");
+            }
+            return result;
         } catch (EmptyQueryException emptyQueryException) {
             // This happens when the query consists of one of lucenes "stop-words". In this case, we just return an empty list
-            return emptyList();
-        }
-    }
-
-    @SuppressWarnings("unchecked")
-    private List<String> doSearch(String searchTerm, int maxResults) throws EmptyQueryException {
-        FullTextEntityManager em = Search.getFullTextEntityManager(entityManager);
-        QueryBuilder queryBuilder = em.getSearchFactory().buildQueryBuilder().forEntity(Skill.class).get();
-        String lowerCaseSearchTerm = searchTerm.toLowerCase();
-        Query wildcard = queryBuilder.keyword()
-                .wildcard()
-                .onFields("qualifier", "qualifiers.qualifier")
-                .matching( lowerCaseSearchTerm + "*")
-                .createQuery();
-        Query fuzzy = queryBuilder.keyword()
-                .fuzzy()
-                .onFields("qualifier", "qualifiers.qualifier")
-                .matching( lowerCaseSearchTerm)
-                .createQuery();
-        Query query = queryBuilder.bool()
-                .should(wildcard)
-                .should(fuzzy)
-                .createQuery();
-        return (List<String>) em.createFullTextQuery(query, Skill.class)
-                .setMaxResults(maxResults)
-                .setProjection("qualifier")
-                .getResultList()
-                .stream()
-                .map(o -> ((Object[]) o)[0].toString())
+            return SkillSearchResult.complete(emptyList());
+        }
+    }
+
+    /**
+     * Searches the typeahead trie. Skills are filtered by category and blacklist like the Lucene search does, and
+     * their category and localized qualifier are taken from the skill tree snapshot. Skills without category are not
+     * part of the snapshot; They are found unless a category is requested.
+     */
+    private List<SkillSearchHit> searchTrie(SkillSearchQuery query) {
+        SkillTreeSnapshot snapshot = skillTreeSnapshotService.getSnapshot();
+        Predicate<Integer> filter = id -> {
+            SkillEntry skill = snapshot.getSkills().get(id);
+            Integer categoryId = skill == null ? null : skill.getCategoryId();
+            if (query.getCategoryId() != null && (categoryId == null || snapshot.getCategoryPath(categoryId).stream()
+                    .noneMatch(category -> category.getId().equals(query.getCategoryId())))) {
+                return false;
+            }
+            return query.isIncludeBlacklisted() || categoryId == null || !snapshot.isBlacklisted(categoryId);
+        };
+        return skillTypeaheadService.searchSkills(query.getTerm(), query.getMaxResults(), filter).stream()
+                .map(hit -> {
+                    SkillEntry skill = snapshot.getSkills().get(hit.getId());
+                    if (skill == null) {
+                        return hit.toBuilder().categoryPath(emptyList()).build();
+                    }
+                    List<String> localizedQualifiers = skill.getQualifiers().stream()
+                            .filter(localized -> query.getLocale() == null
+                                    || query.getLocale().equalsIgnoreCase(localized.getLocale()))
+                            .map(LocalizedQualifier::getQualifier)
+                            .filter(Objects::nonNull)
+                            .collect(Collectors.toList());
+                    return hit.toBuilder()
+                            .localizedQualifier(query.getLocale() == null
+                                    ? matchedLocalizedQualifier(skill.getQualifier(), localizedQualifiers, query.getTerm())
+                                    : localizedQualifiers.stream().findFirst().orElse(null))
+                            .categoryId(skill.getCategoryId())
+                            .categoryPath(snapshot.getCategoryPath(skill.getCategoryId()).stream()
+                                    .map(CategoryEntry::getQualifier)
+                                    .collect(Collectors.toList()))
+                            .build();
+                })
                 .collect(Collectors.toList());
     }
+
+    /**
+     * Runs the prefix search and, if it found too few skills, the fuzzy search. Both share the time budget of the
+     * search; If it runs out, the hits collected until then are returned.
+     */
+    private SkillSearchResult doSearch(IndexSearcher searcher, SkillSearchQuery query, SkillTreeSnapshot snapshot)
+            throws EmptyQueryException {
+        long start = TimeLimitingCollector.getGlobalCounter().get();
+        QueryBuilder queryBuilder = searchFactory.buildQueryBuilder().forEntity(Skill.class)
+                .overridesForField(Skill.PREFIX_FIELD, Skill.PREFIX_SEARCH_ANALYZER)
+                .overridesForField(EMBEDDED_PREFIX_FIELD, Skill.PREFIX_SEARCH_ANALYZER)
+                .get();
+        String searchTerm = query.getTerm();
+        // The prefixes are indexed as edge n-grams, so every word of the search term is a plain term lookup
+        Query prefix = inQualifiers(queryBuilder, query.getLocale(),
+                field -> queryBuilder.keyword().onField(field).matching(searchTerm).createQuery(),
+                Skill.PREFIX_FIELD, EMBEDDED_PREFIX_FIELD);
+        Query exact = exactWords(queryBuilder, query);
+        if (exact != null) {
+            // Every prefix matches as many skills as its longer completions; Rank skills with the complete words first
+            prefix = queryBuilder.bool().should(prefix).should(exact).createQuery();
+        }
+        prefix = filtered(prefix, query, snapshot);
+        Map<Integer, SkillSearchHit> result = new LinkedHashMap<>();
+        SkillSearchResult prefixHits = project(searcher, prefix, query, snapshot, start);
+        prefixHits.getHits().forEach(hit -> result.putIfAbsent(hit.getId(), hit));
+        boolean truncated = prefixHits.isTruncated();
+        if (!truncated && result.size() < Math.min(query.getMaxResults(), minPrefixHits)) {
+            // Expanding the fuzzy terms is not covered by the time limit of the collector
+            SkillSearchResult fuzzyHits = isTimeLeft(start)
+                    ? searchFuzzy(searcher, queryBuilder, query, snapshot, start)
+                    : new SkillSearchResult(emptyList(), true);
+            // The prefix hits may be among the fuzzy hits as well
+            for (SkillSearchHit hit : fuzzyHits.getHits()) {
+                if (result.size() >= query.getMaxResults()) {
+                    break;
+                }
+                result.putIfAbsent(hit.getId(), hit);
+            }
+            truncated = fuzzyHits.isTruncated();
+        }
+        return new SkillSearchResult(new ArrayList<>(result.values()), truncated);
+    }
+
+    private boolean isTimeLeft(long start) {
+        return TimeLimitingCollector.getGlobalCounter().get() - start < timeoutMillis;
+    }
+
+    /**
+     * Combines the query on the qualifier field with the query on the localized qualifier field. If a language is
+     * given, localized qualifiers only match in that language and are boosted.
+     */
+    private Query inQualifiers(QueryBuilder queryBuilder, String locale, Function<String, Query> queryOnField,
+                               String qualifierField, String localizedField) {
+        Query qualifier = queryOnField.apply(qualifierField);
+        Query localized = queryOnField.apply(localizedField);
+        if (locale != null) {
+            Query inLocale = queryBuilder.keyword().onField(LOCALE_FIELD).matching(locale).createQuery();
+            localized = queryBuilder.bool().must(localized).must(inLocale).boostedTo(LOCALIZED_BOOST).createQuery();
+        }
+        return queryBuilder.bool().should(qualifier).should(localized).createQuery();
+    }
+
+    /**
+     * Restricts the query to the skills below the requested category and outside of blacklisted categories. Both are
+     * matched on the indexed ancestor IDs, as filters that do not change the scores.
+     */
+    private Query filtered(Query query, SkillSearchQuery searchQuery, SkillTreeSnapshot snapshot) {
+        BooleanQuery.Builder filtered = new BooleanQuery.Builder().add(query, BooleanClause.Occur.MUST);
+        if (searchQuery.getCategoryId() != null) {
+            filtered.add(new TermQuery(new Term(Skill.CATEGORY_ANCESTOR_IDS_FIELD, String.valueOf(searchQuery.getCategoryId()))),
+                    BooleanClause.Occur.FILTER);
+        }
+        if (!searchQuery.isIncludeBlacklisted()) {
+            blacklistFilter(snapshot).getQuery()
+                    .ifPresent(blacklisted -> filtered.add(blacklisted, BooleanClause.Occur.MUST_NOT));
+        }
+        return filtered.build();
+    }
+
+    /**
+     * Returns the blacklist filter for the given snapshot. The filter is only replaced if the blacklisted categories
+     * changed, so the cached bitsets of the previous filter remain in use after other changes of the catalog.
+     */
+    private BlacklistFilter blacklistFilter(SkillTreeSnapshot snapshot) {
+        BlacklistFilter current = blacklistFilter;
+        if (current.getSnapshotVersion() == snapshot.getVersion()) {
+            return current;
+        }
+        Set<Integer> rootIds = snapshot.getBlacklistedRootIds();
+        BlacklistFilter next;
+        if (rootIds.equals(current.getRootIds())) {
+            next = current.withSnapshotVersion(snapshot.getVersion());
+        } else {
+            next = BlacklistFilter.of(snapshot.getVersion(), rootIds);
+            current.getQuery().ifPresent(filterCache::clearQuery);
+            log.debug("Blacklisted categories changed to " + rootIds + ", replaced search filter.");
+        }
+        blacklistFilter = next;
+        return next;
+    }
+
+    private Query exactWords(QueryBuilder queryBuilder, SkillSearchQuery query) {
+        try {
+            return inQualifiers(queryBuilder, query.getLocale(),
+                    field -> queryBuilder.keyword().onField(field).matching(query.getTerm()).createQuery(),
+                    QUALIFIER_FIELD, LOCALIZED_QUALIFIER_FIELD);
+        } catch (EmptyQueryException emptyQueryException) {
+            return null;
+        }
+    }
+
+    /**
+     * Searches skills with qualifiers similar to the words of the search term. Each word expands to at most
+     * {@link #maxFuzzyExpansions} terms of the index.
+     */
+    private SkillSearchResult searchFuzzy(IndexSearcher searcher, QueryBuilder queryBuilder, SkillSearchQuery query,
+                                          SkillTreeSnapshot snapshot, long start) {
+        // Both fields use the default analyzer
+        List<String> words = analyze(QUALIFIER_FIELD, query.getTerm());
+        if (words.isEmpty()) {
+            // Stop-words are removed from these fields, but may still have prefix hits
+            return SkillSearchResult.complete(emptyList());
+        }
+        List<FuzzyExpansionRewrite> rewrites = new ArrayList<>();
+        Query fuzzy = inQualifiers(queryBuilder, query.getLocale(), field -> fuzzyWords(field, words, rewrites),
+                QUALIFIER_FIELD, LOCALIZED_QUALIFIER_FIELD);
+        SkillSearchResult result = project(searcher, filtered(fuzzy, query, snapshot), query, snapshot, start);
+        if (rewrites.stream().anyMatch(FuzzyExpansionRewrite::isLimitReached)) {
+            fuzzyExpansionLimitHits.incrementAndGet();
+        }
+        return result;
+    }
+
+    private Query fuzzyWords(String field, List<String> words, List<FuzzyExpansionRewrite> rewrites) {
+        BooleanQuery.Builder query = new BooleanQuery.Builder();
+        for (String word : words) {
+            FuzzyQuery fuzzy = new FuzzyQuery(new Term(field, word), FuzzyQuery.defaultMaxEdits,
+                    FuzzyQuery.defaultPrefixLength, maxFuzzyExpansions, FuzzyQuery.defaultTranspositions);
+            FuzzyExpansionRewrite rewrite = new FuzzyExpansionRewrite(maxFuzzyExpansions);
+            fuzzy.setRewriteMethod(rewrite);
+            rewrites.add(rewrite);
+            query.add(fuzzy, BooleanClause.Occur.SHOULD);
+        }
+        return query.build();
+    }
+
+    private List<String> analyze(String field, String text) {
+        List<String> tokens = new ArrayList<>();
+        try (TokenStream stream = searchFactory.getAnalyzer(Skill.class).tokenStream(field, text)) {
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                tokens.add(term.toString());
+            }
+            stream.end();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return tokens;
+    }
+
+    /**
+     * Collects the best matches until the time budget of the search, which started at the given tick of
+     * {@link TimeLimitingCollector#getGlobalCounter()}, runs out.
+     *
+     * @return the best matches, best first, with the values read from the doc values
+     */
+    private SkillSearchResult project(IndexSearcher searcher, Query query, SkillSearchQuery searchQuery,
+                                      SkillTreeSnapshot snapshot, long start) {
+        try {
+            TopScoreDocCollector topDocs = TopScoreDocCollector.create(searchQuery.getMaxResults());
+            TimeLimitingCollector collector = new TimeLimitingCollector(topDocs, TimeLimitingCollector.getGlobalCounter(),
+                    timeoutMillis);
+            collector.setBaseline(start);
+            boolean truncated = false;
+            try {
+                searcher.search(query, collector);
+            } catch (TimeLimitingCollector.TimeExceededException e) {
+                truncated = true;
+            }
+            SkillDocValues docValues = new SkillDocValues(searcher.getIndexReader());
+            List<SkillSearchHit> hits = new ArrayList<>();
+            for (ScoreDoc scoreDoc : topDocs.topDocs().scoreDocs) {
+                SkillValues values = docValues.get(scoreDoc.doc);
+                if (values.getQualifier() == null) {
+                    continue;
+                }
+                Integer categoryId = values.getCategoryId();
+                hits.add(SkillSearchHit.builder()
+                        .id(values.getId())
+                        .qualifier(values.getQualifier())
+                        .localizedQualifier(searchQuery.getLocale() == null
+                                ? matchedLocalizedQualifier(values.getQualifier(), values.getLocalizedQualifiers().stream()
+                                .map(LocalizedValue::getQualifier)
+                                .collect(Collectors.toList()), searchQuery.getTerm())
+                                : localizedQualifier(values, searchQuery.getLocale()))
+                        .score(scoreDoc.score)
+                        .categoryId(categoryId)
+                        .categoryPath(categoryId == null ? emptyList() : snapshot.getCategoryPath(categoryId).stream()
+                                .map(CategoryEntry::getQualifier)
+                                .collect(Collectors.toList()))
+                        .build());
+            }
+            return new SkillSearchResult(hits, truncated);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the first localized qualifier that contains all words of the search term as prefixes, unless the
+     * qualifier itself does
+     */
+    private static String matchedLocalizedQualifier(String qualifier, List<String> localizedQualifiers,
+                                                    String searchTerm) {
+        List<String> searchWords = words(searchTerm);
+        if (searchWords.isEmpty() || containsPrefixes(qualifier, searchWords)) {
+            return null;
+        }
+        return localizedQualifiers.stream()
+                .filter(localized -> containsPrefixes(localized, searchWords))
+                .findFirst()
+                .orElse(null);
+    }
+
+    private static boolean containsPrefixes(String text, List<String> prefixes) {
+        List<String> words = words(text);
+        return prefixes.stream().allMatch(prefix -> words.stream().anyMatch(word -> word.startsWith(prefix)));
+    }
+
+    /**
+     * @return the words of the text, lower cased and without diacritics, like the prefix analyzer indexes them
+     */
+    private static List<String> words(String text) {
+        String folded = DIACRITICS.matcher(Normalizer.normalize(text.toLowerCase(Locale.ROOT), Normalizer.Form.NFD))
+                .replaceAll("");
+        return Arrays.stream(WORD_SEPARATOR.split(folded))
+                .filter(word -> !word.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    private static String localizedQualifier(SkillValues values, String locale) {
+        return values.getLocalizedQualifiers().stream()
+                .filter(localized -> locale.equalsIgnoreCase(localized.getLocale()))
+                .map(LocalizedValue::getQualifier)
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * Always caches the blacklist filter, which is used by most searches; Other filters are cached once they are used
+     * frequently, as by default.
+     */
+    private class BlacklistFilterCachingPolicy implements QueryCachingPolicy {
+
+        private final QueryCachingPolicy defaultPolicy = new UsageTrackingQueryCachingPolicy();
+
+        @Override
+        public void onUse(Query query) {
+            defaultPolicy.onUse(query);
+        }
+
+        @Override
+        public boolean shouldCache(Query query, LeafReaderContext context) throws IOException {
+            return blacklistFilter.isFilter(query) || defaultPolicy.shouldCache(query, context);
+        }
+    }
 }
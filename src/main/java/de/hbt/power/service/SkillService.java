@@ -18,14 +18,18 @@ public class SkillService {
 
     private final SkillRepository skillRepository;
 
+    private final SkillTreeSnapshotService skillTreeSnapshotService;
+
     @Autowired
-    public SkillService(SkillRepository skillRepository) {
+    public SkillService(SkillRepository skillRepository, SkillTreeSnapshotService skillTreeSnapshotService) {
         this.skillRepository = skillRepository;
+        this.skillTreeSnapshotService = skillTreeSnapshotService;
     }
 
     @Transactional
     public Skill moveSkillToCategory(Skill toMove, SkillCategory newParent) {
         toMove.setCategory(newParent);
+        skillTreeSnapshotService.skillChanged(toMove);
         return toMove;
     }
 
@@ -33,7 +37,15 @@ public class SkillService {
     public Skill createSkillInCategory(Skill skill, SkillCategory skillCategory) {
         skill.setCustom(true);
         skill.setCategory(skillCategory);
-        return skillRepository.save(skill);
+        Skill saved = skillRepository.save(skill);
+        skillTreeSnapshotService.skillChanged(saved);
+        return saved;
+    }
+
+    @Transactional
+    public void deleteSkill(Skill skill) {
+        skillRepository.delete(skill);
+        skillTreeSnapshotService.skillRemoved(skill);
     }
 
     private Locale getLocale(String language) {
@@ -44,20 +56,24 @@ public class SkillService {
     @Transactional
     public void addLocaleToSkill(Skill skill, String localeString, String language) {
         skill.addLocale(getLocale(language), localeString);
+        skillTreeSnapshotService.skillChanged(skill);
     }
 
     @Transactional
     public void removeLocaleFromSkill(Skill skill, String language) {
         skill.removeLocale(getLocale(language));
+        skillTreeSnapshotService.skillChanged(skill);
     }
 
     @Transactional
     public void addVersion(Skill skill, String version) {
         skill.getVersions().add(version);
+        skillTreeSnapshotService.skillChanged(skill);
     }
 
     @Transactional
     public void deleteVersion(Skill skill, String version){
         skill.getVersions().remove(version);
+        skillTreeSnapshotService.skillChanged(skill);
     }
 }
@@ -0,0 +1,90 @@
+package de.hbt.power.service;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.hbt.power.model.dto.TCategoryNode;
+import de.hbt.power.model.tree.CategoryEntry;
+import de.hbt.power.model.tree.SkillEntry;
+import de.hbt.power.model.tree.SkillTreeSnapshot;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import static de.hbt.power.model.tree.SkillTreeSnapshot.ROOT_ID;
+import static java.util.Collections.emptySet;
+
+/**
+ * Writes a {@link SkillTreeSnapshot} as JSON directly to a stream, walking the snapshot instead of materializing
+ * {@link TCategoryNode}s first. The written document has the same structure as a serialized {@link TCategoryNode}.
+ */
+@Component
+public class SkillTreeJsonWriter {
+
+    private final ObjectMapper objectMapper;
+
+    @Autowired
+    public SkillTreeJsonWriter(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    public void write(SkillTreeSnapshot snapshot, OutputStream out) throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeNumberField("id", ROOT_ID);
+            generator.writeStringField("qualifier", "##ROOT##");
+            generator.writeBooleanField("blacklisted", false);
+            generator.writeBooleanField("custom", false);
+            generator.writeBooleanField("display", false);
+            generator.writeFieldName("qualifiers");
+            generator.writeObject(emptySet());
+            writeChildren(generator, snapshot, ROOT_ID);
+            generator.writeEndObject();
+        }
+    }
+
+    private void writeCategory(JsonGenerator generator, SkillTreeSnapshot snapshot, CategoryEntry category) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("id", category.getId());
+        generator.writeStringField("qualifier", category.getQualifier());
+        generator.writeBooleanField("blacklisted", snapshot.isBlacklisted(category.getId()));
+        generator.writeBooleanField("custom", category.isCustom());
+        generator.writeBooleanField("display", category.isDisplay());
+        generator.writeFieldName("qualifiers");
+        generator.writeObject(category.getQualifiers());
+        writeChildren(generator, snapshot, category.getId());
+        generator.writeEndObject();
+    }
+
+    private void writeChildren(JsonGenerator generator, SkillTreeSnapshot snapshot, int categoryId) throws IOException {
+        List<CategoryEntry> childCategories = snapshot.getChildCategories(categoryId);
+        List<SkillEntry> childSkills = snapshot.getSkills(categoryId);
+        generator.writeArrayFieldStart("childCategories");
+        for (CategoryEntry child : childCategories) {
+            writeCategory(generator, snapshot, child);
+        }
+        generator.writeEndArray();
+        generator.writeArrayFieldStart("childSkills");
+        for (SkillEntry skill : childSkills) {
+            writeSkill(generator, skill);
+        }
+        generator.writeEndArray();
+        generator.writeNumberField("childCategoryCount", childCategories.size());
+        generator.writeNumberField("childSkillCount", childSkills.size());
+    }
+
+    private void writeSkill(JsonGenerator generator, SkillEntry skill) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("id", skill.getId());
+        generator.writeStringField("qualifier", skill.getQualifier());
+        generator.writeFieldName("qualifiers");
+        generator.writeObject(skill.getQualifiers());
+        generator.writeFieldName("versions");
+        generator.writeObject(skill.getVersions());
+        generator.writeBooleanField("custom", skill.isCustom());
+        generator.writeEndObject();
+    }
+}
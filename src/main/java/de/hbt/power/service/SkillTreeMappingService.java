@@ -4,15 +4,19 @@ import de.hbt.power.model.Skill;
 import de.hbt.power.model.SkillCategory;
 import de.hbt.power.model.dto.TCategoryNode;
 import de.hbt.power.model.dto.TSkillNode;
+import de.hbt.power.model.tree.CategoryEntry;
+import de.hbt.power.model.tree.SkillEntry;
+import de.hbt.power.model.tree.SkillTreeSnapshot;
 import de.hbt.power.repo.SkillCategoryRepository;
 import de.hbt.power.repo.SkillRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+
+import static de.hbt.power.model.tree.SkillTreeSnapshot.ROOT_ID;
+import static java.util.stream.Collectors.toList;
 
 @Slf4j
 @Service
@@ -28,82 +32,76 @@ public class SkillTreeMappingService {
         this.skillCategoryRepository = skillCategoryRepository;
     }
 
-    public TCategoryNode buildSkillTree() {
-        return buildSkillTree(skillCategoryRepository.findAll(), skillRepository.findForTree());
+    /**
+     * Loads all categories and categorized skills from the database into a new snapshot. Needs a constant number
+     * of queries: Categories are loaded first, so the categories of the skills and the parents of the categories
+     * are resolved from the persistence context.
+     */
+    public SkillTreeSnapshot loadSnapshot(long version) {
+        List<SkillCategory> categories = skillCategoryRepository.findAllForTree();
+        return toSnapshot(version, categories, skillRepository.findForTree());
     }
 
-    public TCategoryNode buildSkillTree(List<SkillCategory> categories, List<Skill> skills) {
+    public SkillTreeSnapshot toSnapshot(long version, List<SkillCategory> categories, List<Skill> skills) {
         log.info("categories: " + categories.size() + "        skills: " + skills.size());
-        return new SkillTreeMapper(categories, skills).map();
+        return SkillTreeSnapshot.of(version,
+                categories.stream().map(CategoryEntry::of).collect(toList()),
+                skills.stream().map(SkillEntry::of).collect(toList()));
     }
 
-    private static class SkillTreeMapper {
-        private final List<SkillCategory> categories;
-        private final List<Skill> skills;
-
-        private final Map<Integer, TCategoryNode> categoryNodesById;
-
-        private final TCategoryNode rootNode;
-
-        private SkillTreeMapper(List<SkillCategory> categories, List<Skill> skills) {
-            this.categories = categories;
-            this.skills = skills;
-            this.categoryNodesById = new HashMap<>();
-            this.rootNode = new TCategoryNode();
-            rootNode.setId(-1);
-            rootNode.setQualifier("##ROOT##");
-        }
-
-        public TCategoryNode map() {
-            // This maps all categories and skills into the map. Once the map is completed,
-            // the structure can be built
-            categories.forEach(this::convert);
-            skills.forEach(this::convert);
-            // now we iterate over the original categories again, this time building the structure.
-            // Because we do not know the order of the categories, this has to happen after the initial
-            // mapping; The categoriesById map exists for performance reasons.
-            categories.forEach(this::addToTree);
-            return rootNode;
-        }
+    public TCategoryNode buildSkillTree(List<SkillCategory> categories, List<Skill> skills) {
+        return buildSkillTree(toSnapshot(0, categories, skills));
+    }
 
-        private void convert(SkillCategory category) {
-            TCategoryNode node = new TCategoryNode();
-            node.setCustom(category.isCustom());
-            node.setId(category.getId());
-            node.setQualifier(category.getQualifier());
-            node.setQualifiers(category.getQualifiers());
-            node.setBlacklisted(category.isBlacklisted());
-            node.setDisplay(category.isDisplay());
-            categoryNodesById.put(node.getId(), node);
-        }
+    /**
+     * Materializes the tree of the given snapshot. Children are added in tree order; Every node is visited once.
+     */
+    public TCategoryNode buildSkillTree(SkillTreeSnapshot snapshot) {
+        TCategoryNode rootNode = new TCategoryNode();
+        rootNode.setId(ROOT_ID);
+        rootNode.setQualifier("##ROOT##");
+        addChildren(snapshot, rootNode, Integer.MAX_VALUE);
+        return rootNode;
+    }
 
-        private void convert(Skill skill) {
-            TSkillNode skillNode = new TSkillNode();
-            skillNode.setQualifiers(skill.getQualifiers());
-            skillNode.setQualifier(skill.getQualifier());
-            skillNode.setId(skill.getId());
-            skillNode.setCustom(skill.isCustom());
-            skillNode.setVersions(skill.getVersions());
-            // As this step is happening after all categories are mapped, we can safely add the skill now
-            if (skill.getCategory() != null) {
-                // If this throws an exception, something is very wrong.
-                categoryNodesById.get(skill.getCategory().getId()).getChildSkills().add(skillNode);
-            }
-        }
+    /**
+     * Materializes the subtree below the given category, down to the given depth. With a depth of 0, only the category
+     * itself is returned; with a depth of 1, its direct children are included, and so on.
+     */
+    public TCategoryNode buildSubtree(SkillTreeSnapshot snapshot, CategoryEntry category, int depth) {
+        return toNode(snapshot, category, depth);
+    }
 
-        private void addToTree(SkillCategory category) {
-            if (category.getCategory() == null) {
-                // We have found a root category. Add it to root.
-                TCategoryNode categoryNode = categoryNodesById.get(category.getId());
-                rootNode.getChildCategories().add(categoryNode);
-            } else {
-                // We have found a child node of another category. Add it to that one.
-                TCategoryNode childNode = categoryNodesById.get(category.getId());
-                TCategoryNode parentNode = categoryNodesById.get(category.getCategory().getId());
-                parentNode.getChildCategories().add(childNode);
-            }
+    private void addChildren(SkillTreeSnapshot snapshot, TCategoryNode node, int depth) {
+        List<CategoryEntry> childCategories = snapshot.getChildCategories(node.getId());
+        List<SkillEntry> childSkills = snapshot.getSkills(node.getId());
+        node.setChildCategoryCount(childCategories.size());
+        node.setChildSkillCount(childSkills.size());
+        if (depth > 0) {
+            childCategories.forEach(child -> node.getChildCategories().add(toNode(snapshot, child, depth - 1)));
+            childSkills.forEach(skill -> node.getChildSkills().add(toNode(skill)));
         }
+    }
 
+    private TCategoryNode toNode(SkillTreeSnapshot snapshot, CategoryEntry category, int depth) {
+        TCategoryNode node = new TCategoryNode();
+        node.setCustom(category.isCustom());
+        node.setId(category.getId());
+        node.setQualifier(category.getQualifier());
+        node.setQualifiers(category.getQualifiers());
+        node.setBlacklisted(snapshot.isBlacklisted(category.getId()));
+        node.setDisplay(category.isDisplay());
+        addChildren(snapshot, node, depth);
+        return node;
+    }
 
+    private TSkillNode toNode(SkillEntry skill) {
+        TSkillNode skillNode = new TSkillNode();
+        skillNode.setQualifiers(skill.getQualifiers());
+        skillNode.setQualifier(skill.getQualifier());
+        skillNode.setId(skill.getId());
+        skillNode.setCustom(skill.isCustom());
+        skillNode.setVersions(skill.getVersions());
+        return skillNode;
     }
 }
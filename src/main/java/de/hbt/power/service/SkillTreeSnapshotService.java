@@ -0,0 +1,335 @@
+package de.hbt.power.service;
+
+import de.hbt.power.model.Skill;
+import de.hbt.power.model.SkillCategory;
+import de.hbt.power.model.dto.TCategoryNode;
+import de.hbt.power.model.tree.CategoryEntry;
+import de.hbt.power.model.tree.SkillEntry;
+import de.hbt.power.model.tree.SkillTreeSnapshot;
+import lombok.Getter;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Holds the current {@link SkillTreeSnapshot} and the skill tree materialized from it on demand.
+ * <p>
+ * Readers always get the last published snapshot without locking and without touching the database. Writes that are
+ * done through {@link CategoryService} and {@link SkillService} are recorded here and applied copy-on-write once
+ * their transaction has committed, so a rolled back transaction never shows up in the tree. The changed entities are
+ * converted to tree entries just before the commit, while their persistence context is still open.
+ * </p>
+ * <p>
+ * Changes that bypass the services (e.g. done by another instance of this service) are picked up by a periodic
+ * refresh from the database.
+ * </p>
+ */
+@Slf4j
+@Service
+public class SkillTreeSnapshotService {
+
+    private final SkillTreeMappingService skillTreeMappingService;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    private volatile PublishedTree published;
+
+    /**
+     * Set while the current thread loads a snapshot; Categories loaded meanwhile must not ask for the snapshot.
+     */
+    private final ThreadLocal<Boolean> loading = ThreadLocal.withInitial(() -> false);
+
+    /**
+     * Number of change sets applied so far. Used to detect writes that happened while a refresh was loading.
+     * Guarded by <code>this</code>.
+     */
+    private long appliedChangeSets = 0;
+
+    @Autowired
+    public SkillTreeSnapshotService(SkillTreeMappingService skillTreeMappingService,
+                                    PlatformTransactionManager transactionManager,
+                                    ApplicationEventPublisher eventPublisher) {
+        this.skillTreeMappingService = skillTreeMappingService;
+        this.eventPublisher = eventPublisher;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        // Loads may be triggered from afterCommit callbacks, where the original transaction is still bound.
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    public SkillTreeSnapshot getSnapshot() {
+        return current().getSnapshot();
+    }
+
+    public TCategoryNode getTree() {
+        return current().getTree();
+    }
+
+    /**
+     * Returns the subtree below the given category, cut off at the given depth.
+     *
+     * @return the subtree or empty if the category is not part of the tree
+     */
+    public Optional<TCategoryNode> getSubtree(int categoryId, int depth) {
+        SkillTreeSnapshot snapshot = getSnapshot();
+        return Optional.ofNullable(snapshot.getCategories().get(categoryId))
+                .map(category -> skillTreeMappingService.buildSubtree(snapshot, category, depth));
+    }
+
+    /**
+     * The catalog version increases with every change to categories or skills.
+     */
+    public long getCatalogVersion() {
+        return getSnapshot().getVersion();
+    }
+
+    /**
+     * Returns an ETag that identifies the current content of the catalog. Any change to a category or skill yields a
+     * new ETag. It is derived from the content only, so all instances of the service and restarts of them agree on
+     * it.
+     */
+    public String getCatalogETag() {
+        return "\"" + getSnapshot().getContentHash() + "\"";
+    }
+
+    /**
+     * Returns an ETag that identifies the current content of the given skill. Unlike the catalog ETag, it covers
+     * skills without category as well.
+     */
+    public String getSkillETag(Skill skill) {
+        return "\"" + SkillEntry.of(skill).getContentHash() + "\"";
+    }
+
+    public void categoryChanged(SkillCategory category) {
+        record(changes -> changes.getChangedCategories().add(category));
+    }
+
+    /**
+     * Looks up whether one of the ancestors of the given category is blacklisted.
+     *
+     * @return empty if this can't be told from the current snapshot, e.g. because the parent is not part of it
+     */
+    public Optional<Boolean> findAncestorBlacklisted(SkillCategory category) {
+        if (loading.get() || category.getPath() == null) {
+            return Optional.empty();
+        }
+        List<Integer> ancestorIds = category.getAncestorIds();
+        if (ancestorIds.isEmpty()) {
+            return Optional.of(false);
+        }
+        Integer parentId = ancestorIds.get(ancestorIds.size() - 1);
+        SkillTreeSnapshot snapshot = getSnapshot();
+        if (!snapshot.getCategories().containsKey(parentId)) {
+            return Optional.empty();
+        }
+        return Optional.of(snapshot.isBlacklisted(parentId));
+    }
+
+    public void categoryRemoved(SkillCategory category) {
+        record(changes -> changes.getRemovedCategoryIds().add(category.getId()));
+    }
+
+    public void skillChanged(Skill skill) {
+        record(changes -> changes.getChangedSkills().add(skill));
+    }
+
+    public void skillRemoved(Skill skill) {
+        record(changes -> changes.getRemovedSkillIds().add(skill.getId()));
+    }
+
+    /**
+     * Reloads the snapshot from the database and publishes it if its content differs from the current one.
+     */
+    @Scheduled(fixedDelayString = "${skill-tree.snapshot.refresh-interval:300000}",
+            initialDelayString = "${skill-tree.snapshot.refresh-interval:300000}")
+    public void refresh() {
+        long changeSetsBeforeLoad;
+        synchronized (this) {
+            changeSetsBeforeLoad = appliedChangeSets;
+        }
+        SkillTreeSnapshot loaded = load(0);
+        synchronized (this) {
+            if (appliedChangeSets != changeSetsBeforeLoad) {
+                // The loaded data may be older than what has been applied in the meantime; try again next time.
+                log.debug("Skill tree changed while refreshing, skipping refresh.");
+            } else if (published == null) {
+                publish(loaded.withVersion(1));
+            } else if (!published.getSnapshot().hasSameContent(loaded)) {
+                log.info("Skill tree was changed externally, publishing refreshed snapshot.");
+                SkillTreeSnapshot refreshed = loaded.withVersion(published.getSnapshot().getVersion() + 1);
+                publish(refreshed);
+                eventPublisher.publishEvent(CatalogChangedEvent.reloaded(refreshed.getVersion()));
+            }
+        }
+    }
+
+    private PublishedTree current() {
+        PublishedTree current = published;
+        if (current == null) {
+            synchronized (this) {
+                if (published == null) {
+                    publish(load(1));
+                }
+                current = published;
+            }
+        }
+        return current;
+    }
+
+    private SkillTreeSnapshot load(long version) {
+        boolean nested = loading.get();
+        loading.set(true);
+        try {
+            return transactionTemplate.execute(status -> skillTreeMappingService.loadSnapshot(version));
+        } finally {
+            loading.set(nested);
+        }
+    }
+
+    private void publish(SkillTreeSnapshot snapshot) {
+        published = new PublishedTree(snapshot);
+    }
+
+    private void publishChange(SkillTreeSnapshot snapshot, PendingChanges changes) {
+        Set<Integer> removedSkillIds = new HashSet<>(changes.getRemovedSkillIds());
+        if (!changes.getRemovedCategoryIds().isEmpty()) {
+            // The skills of removed categories are removed with them
+            published.getSnapshot().getSkills().keySet().stream()
+                    .filter(id -> !snapshot.getSkills().containsKey(id))
+                    .forEach(removedSkillIds::add);
+        }
+        publish(snapshot);
+        eventPublisher.publishEvent(new CatalogChangedEvent(snapshot.getVersion(),
+                List.copyOf(changes.getSkillEntries()), Set.copyOf(removedSkillIds), false));
+    }
+
+    /**
+     * Records a change. Within a transaction, all changes are collected and applied together after commit.
+     * Without a transaction, the change is applied immediately.
+     */
+    private void record(Consumer<PendingChanges> change) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            PendingChanges pending = (PendingChanges) TransactionSynchronizationManager.getResource(this);
+            if (pending == null) {
+                pending = new PendingChanges();
+                TransactionSynchronizationManager.bindResource(this, pending);
+                TransactionSynchronizationManager.registerSynchronization(new ApplyAfterCommit(pending));
+            }
+            change.accept(pending);
+        } else {
+            PendingChanges pending = new PendingChanges();
+            change.accept(pending);
+            convert(pending);
+            apply(pending);
+        }
+    }
+
+    /**
+     * Converts the changed entities to tree entries. Entities without ID were not saved, removed ones are skipped.
+     */
+    private static void convert(PendingChanges changes) {
+        changes.getChangedCategories().stream()
+                .filter(category -> category.getId() != null)
+                .filter(category -> !changes.getRemovedCategoryIds().contains(category.getId()))
+                .map(CategoryEntry::of)
+                .forEach(changes.getCategoryEntries()::add);
+        changes.getChangedSkills().stream()
+                .filter(skill -> skill.getId() != null)
+                .filter(skill -> !changes.getRemovedSkillIds().contains(skill.getId()))
+                .map(SkillEntry::of)
+                .forEach(changes.getSkillEntries()::add);
+    }
+
+    private synchronized void apply(PendingChanges changes) {
+        appliedChangeSets++;
+        if (published == null) {
+            // Nothing has been loaded yet; The first read will load the committed state. Without a snapshot, the
+            // skills of removed categories are not known.
+            eventPublisher.publishEvent(changes.getRemovedCategoryIds().isEmpty()
+                    ? new CatalogChangedEvent(0, List.copyOf(changes.getSkillEntries()),
+                    Set.copyOf(changes.getRemovedSkillIds()), false)
+                    : CatalogChangedEvent.reloaded(0));
+            return;
+        }
+        SkillTreeSnapshot current = published.getSnapshot();
+        long version = current.getVersion() + 1;
+        SkillTreeSnapshot next = current.withChanges(version,
+                changes.getCategoryEntries(), changes.getRemovedCategoryIds(),
+                changes.getSkillEntries(), changes.getRemovedSkillIds());
+        publishChange(next, changes);
+    }
+
+    /**
+     * The tree is materialized on the first read of it, so writers don't build trees nobody reads, and don't build
+     * them while holding the lock. Racing readers build equal trees.
+     */
+    private class PublishedTree {
+        @Getter
+        private final SkillTreeSnapshot snapshot;
+
+        private volatile TCategoryNode tree;
+
+        private PublishedTree(SkillTreeSnapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        private TCategoryNode getTree() {
+            TCategoryNode result = tree;
+            if (result == null) {
+                result = skillTreeMappingService.buildSkillTree(snapshot);
+                tree = result;
+            }
+            return result;
+        }
+    }
+
+    @Value
+    private static class PendingChanges {
+        private Set<SkillCategory> changedCategories = Collections.newSetFromMap(new IdentityHashMap<>());
+        private Set<Integer> removedCategoryIds = new HashSet<>();
+        private Set<Skill> changedSkills = Collections.newSetFromMap(new IdentityHashMap<>());
+        private Set<Integer> removedSkillIds = new HashSet<>();
+        /**
+         * The changed entities, converted before commit
+         */
+        private List<CategoryEntry> categoryEntries = new ArrayList<>();
+        private List<SkillEntry> skillEntries = new ArrayList<>();
+    }
+
+    private class ApplyAfterCommit extends TransactionSynchronizationAdapter {
+        private final PendingChanges pending;
+
+        private ApplyAfterCommit(PendingChanges pending) {
+            this.pending = pending;
+        }
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            // Lazy associations can only be loaded while the persistence context is open
+            convert(pending);
+        }
+
+        @Override
+        public void afterCommit() {
+            apply(pending);
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(SkillTreeSnapshotService.this);
+        }
+    }
+}
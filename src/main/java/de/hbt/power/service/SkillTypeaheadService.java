@@ -0,0 +1,222 @@
+package de.hbt.power.service;
+
+import de.hbt.power.model.LocalizedQualifier;
+import de.hbt.power.model.dto.SkillSearchHit;
+import de.hbt.power.model.tree.SkillEntry;
+import de.hbt.power.model.typeahead.SkillTrie;
+import de.hbt.power.repo.SkillRepository;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.function.Predicate;
+
+import static java.util.Collections.emptyList;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * In-memory typeahead over skill qualifiers and their localized qualifiers, as an alternative to the wildcard and
+ * fuzzy queries on the Lucene index. See {@link SkillTrie} for the matching rules.
+ * <p>
+ * The trie is built from the database on the first search. Catalog changes are applied to it in the background, in
+ * the order they were published, from the skills they carry; Only a reload of the catalog (the periodic refresh of
+ * the skill tree) rebuilds it from the database. The trie is immutable, so applying changes builds a new one over
+ * all skills; Changes are therefore collected and applied together, at most once per <code>update-interval</code>
+ * ms. Searches always use the last built trie and never touch the database.
+ * </p>
+ */
+@Service
+@Log4j2
+public class SkillTypeaheadService {
+
+    private final SkillRepository skillRepository;
+
+    private final int maxEdits;
+
+    private final long updateIntervalMillis;
+
+    /**
+     * Applies the catalog changes off the committing thread
+     */
+    private final ThreadPoolTaskScheduler updateScheduler;
+
+    private volatile Typeahead current;
+
+    /**
+     * Catalog changes that are not applied yet, in the order they were published. Guarded by itself.
+     */
+    private final List<CatalogChangedEvent> pendingChanges = new ArrayList<>();
+
+    /**
+     * Whether applying the pending changes is scheduled. Guarded by <code>pendingChanges</code>.
+     */
+    private boolean updateScheduled = false;
+
+    private volatile long lastUpdateMillis = 0;
+
+    @Autowired
+    public SkillTypeaheadService(SkillRepository skillRepository,
+                                 @Value("${skill-search.trie.max-edits:2}") int maxEdits,
+                                 @Value("${skill-search.trie.update-interval:1000}") long updateIntervalMillis) {
+        this.skillRepository = skillRepository;
+        this.maxEdits = maxEdits;
+        this.updateIntervalMillis = updateIntervalMillis;
+        this.updateScheduler = new ThreadPoolTaskScheduler();
+        this.updateScheduler.setThreadNamePrefix("Skill-Typeahead-");
+        this.updateScheduler.initialize();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        updateScheduler.shutdown();
+    }
+
+    public List<String> search(String searchTerm, int maxResults) {
+        Typeahead typeahead = current;
+        if (typeahead == null) {
+            typeahead = rebuild(false);
+        }
+        return typeahead.getTrie().search(searchTerm, maxResults, maxEdits);
+    }
+
+    /**
+     * Searches like {@link #search(String, int)}, but only for the skills accepted by the filter. Skills that share
+     * their qualifier are returned one after another.
+     *
+     * @return hits with the ID and qualifier of at most <code>maxResults</code> skills, best matches first
+     */
+    public List<SkillSearchHit> searchSkills(String searchTerm, int maxResults, Predicate<Integer> filter) {
+        Typeahead typeahead = current;
+        if (typeahead == null) {
+            typeahead = rebuild(false);
+        }
+        Map<String, List<Integer>> idsByQualifier = typeahead.getIdsByQualifier();
+        List<String> qualifiers = typeahead.getTrie().search(searchTerm, maxResults, maxEdits,
+                qualifier -> idsByQualifier.getOrDefault(qualifier, emptyList()).stream().anyMatch(filter));
+        List<SkillSearchHit> hits = new ArrayList<>();
+        for (String qualifier : qualifiers) {
+            idsByQualifier.get(qualifier).stream()
+                    .filter(filter)
+                    .limit(maxResults - hits.size())
+                    .forEach(id -> hits.add(SkillSearchHit.builder().id(id).qualifier(qualifier).build()));
+        }
+        return hits;
+    }
+
+    /**
+     * Records the change, so it is applied after the changes published before it, together with the changes
+     * published until the next update is due.
+     */
+    @EventListener
+    public void catalogChanged(CatalogChangedEvent event) {
+        synchronized (pendingChanges) {
+            pendingChanges.add(event);
+            if (updateScheduled) {
+                return;
+            }
+            updateScheduled = true;
+        }
+        long due = Math.max(System.currentTimeMillis(), lastUpdateMillis + updateIntervalMillis);
+        updateScheduler.schedule(this::applyPendingChanges, new Date(due));
+    }
+
+    /**
+     * Applies all recorded changes to the current trie. Changes that were committed before the trie was loaded are
+     * applied again; As they set the state of a skill, this yields the same result.
+     */
+    synchronized void applyPendingChanges() {
+        List<CatalogChangedEvent> events;
+        synchronized (pendingChanges) {
+            events = new ArrayList<>(pendingChanges);
+            pendingChanges.clear();
+            updateScheduled = false;
+        }
+        lastUpdateMillis = System.currentTimeMillis();
+        if (events.isEmpty() || current == null) {
+            // The trie is loaded on the first search, with all changes committed until then
+            return;
+        }
+        if (events.stream().anyMatch(CatalogChangedEvent::isReloaded)) {
+            rebuild(true);
+            return;
+        }
+        Map<Integer, IndexedSkill> skills = new HashMap<>(current.getSkills());
+        for (CatalogChangedEvent event : events) {
+            event.getChangedSkills().forEach(skill -> skills.put(skill.getId(), IndexedSkill.of(skill)));
+            event.getRemovedSkillIds().forEach(skills::remove);
+        }
+        current = build(skills);
+    }
+
+    /**
+     * Builds the trie from the database, unless it has been built meanwhile and no reload is requested.
+     */
+    synchronized Typeahead rebuild(boolean reload) {
+        if (current != null && !reload) {
+            return current;
+        }
+        long start = System.currentTimeMillis();
+        Map<Integer, IndexedSkill> skills = new HashMap<>();
+        for (Object[] row : skillRepository.findQualifiersForSearch()) {
+            IndexedSkill skill = skills.computeIfAbsent((Integer) row[0],
+                    id -> new IndexedSkill((String) row[1], new ArrayList<>()));
+            if (row[2] != null) {
+                skill.getTexts().add((String) row[2]);
+            }
+        }
+        current = build(skills);
+        log.info("Built typeahead trie over " + current.getTrie().size() + " skills in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return current;
+    }
+
+    private static Typeahead build(Map<Integer, IndexedSkill> skills) {
+        Map<String, List<String>> textsByQualifier = new HashMap<>();
+        Map<String, List<Integer>> idsByQualifier = new HashMap<>();
+        new TreeMap<>(skills).forEach((id, skill) -> {
+            textsByQualifier.computeIfAbsent(skill.getQualifier(), qualifier -> new ArrayList<>())
+                    .addAll(skill.getTexts());
+            idsByQualifier.computeIfAbsent(skill.getQualifier(), qualifier -> new ArrayList<>()).add(id);
+        });
+        return new Typeahead(skills, idsByQualifier, SkillTrie.of(textsByQualifier));
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    static final class Typeahead {
+        /**
+         * The skills the trie was built from, by ID
+         */
+        private final Map<Integer, IndexedSkill> skills;
+        /**
+         * IDs of the skills with each qualifier, ascending
+         */
+        private final Map<String, List<Integer>> idsByQualifier;
+        private final SkillTrie trie;
+    }
+
+    /**
+     * Qualifier of a skill and the further texts it is found by
+     */
+    @Getter
+    @RequiredArgsConstructor
+    private static final class IndexedSkill {
+        private final String qualifier;
+        private final List<String> texts;
+
+        private static IndexedSkill of(SkillEntry skill) {
+            List<String> texts = skill.getQualifiers().stream()
+                    .map(LocalizedQualifier::getQualifier)
+                    .filter(Objects::nonNull)
+                    .collect(toList());
+            return new IndexedSkill(skill.getQualifier(), texts);
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package de.hbt.power;
+
+/**
+ * JUnit category of tests that assert on timings. They are excluded from the default build, as they depend on the
+ * load of the machine, and run with <code>mvn test -Pbenchmark</code>.
+ */
+public interface Benchmark {
+}
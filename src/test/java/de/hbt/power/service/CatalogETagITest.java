@@ -0,0 +1,109 @@
+package de.hbt.power.service;
+
+import de.hbt.power.model.Skill;
+import de.hbt.power.model.SkillCategory;
+import de.hbt.power.repo.SkillCategoryRepository;
+import de.hbt.power.repo.SkillRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.context.WebApplicationContext;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@RunWith(SpringJUnit4ClassRunner.class)
+@ActiveProfiles("test")
+public class CatalogETagITest {
+
+    private MockMvc mockMvc;
+
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+
+    @Autowired
+    private SkillCategoryRepository skillCategoryRepository;
+
+    @Autowired
+    private SkillRepository skillRepository;
+
+    @Autowired
+    private CategoryService categoryService;
+
+    @Before
+    public void setUp() {
+        this.mockMvc = webAppContextSetup(webApplicationContext).build();
+    }
+
+    @Test
+    public void whenTreeUnchanged_shouldAnswerNotModified() throws Exception {
+        String eTag = mockMvc.perform(get("/skill/tree"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+        assertThat(eTag).isNotEmpty();
+        mockMvc.perform(get("/skill/tree").header("If-None-Match", eTag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", eTag));
+    }
+
+    @Test
+    public void whenCatalogChanged_shouldReturnNewETag() throws Exception {
+        String eTag = mockMvc.perform(get("/skill/tree"))
+                .andReturn().getResponse().getHeader("ETag");
+        categoryService.createSkillCategory(SkillCategory.of("ETagCategory"), null);
+        String newETag = mockMvc.perform(get("/skill/tree").header("If-None-Match", eTag))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+        assertThat(newETag).isNotEqualTo(eTag);
+    }
+
+    @Test
+    public void whenCategoryUnchanged_shouldAnswerNotModified() throws Exception {
+        SkillCategory category = skillCategoryRepository.save(SkillCategory.of("ETagCategory2"));
+        String eTag = mockMvc.perform(get("/category/" + category.getId()))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+        mockMvc.perform(get("/category/" + category.getId()).header("If-None-Match", eTag))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    public void whenSkillWithoutCategoryChanged_shouldReturnNewETag() throws Exception {
+        Skill skill = skillRepository.save(Skill.of("ETagSkill"));
+        String eTag = mockMvc.perform(get("/skill/" + skill.getId()))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+        mockMvc.perform(get("/skill/" + skill.getId()).header("If-None-Match", eTag))
+                .andExpect(status().isNotModified());
+
+        skill.setQualifier("ETagSkill2");
+        skillRepository.save(skill);
+
+        String newETag = mockMvc.perform(get("/skill/" + skill.getId()).header("If-None-Match", eTag))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+        assertThat(newETag).isNotEqualTo(eTag);
+        skillRepository.delete(skill);
+    }
+
+    @Test
+    public void whenSkillOrCategoryMissing_shouldAnswerNotFound_evenWithCatalogETag() throws Exception {
+        String eTag = mockMvc.perform(get("/skill/tree"))
+                .andReturn().getResponse().getHeader("ETag");
+        mockMvc.perform(get("/skill/" + Integer.MAX_VALUE).header("If-None-Match", eTag))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(get("/category/" + Integer.MAX_VALUE).header("If-None-Match", eTag))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(get("/category/" + Integer.MAX_VALUE + "/tree").header("If-None-Match", eTag))
+                .andExpect(status().isNotFound());
+    }
+}
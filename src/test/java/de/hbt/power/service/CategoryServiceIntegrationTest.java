@@ -3,6 +3,7 @@ package de.hbt.power.service;
 import de.hbt.power.model.LocalizedQualifier;
 import de.hbt.power.model.Skill;
 import de.hbt.power.model.SkillCategory;
+import de.hbt.power.repo.LocalizedQualifierRepository;
 import de.hbt.power.repo.SkillCategoryRepository;
 import de.hbt.power.repo.SkillRepository;
 import org.junit.Before;
@@ -19,6 +20,8 @@ import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.context.WebApplicationContext;
 
+import javax.persistence.EntityManager;
+import java.math.BigInteger;
 import java.util.HashSet;
 import java.util.Locale;
 
@@ -39,12 +42,24 @@ public class CategoryServiceIntegrationTest {
     @Autowired
     private SkillRepository skillRepository;
 
+    @Autowired
+    private SkillTreeSnapshotService skillTreeSnapshotService;
+
+    @Autowired
+    private LocalizedQualifierRepository localizedQualifierRepository;
+
+    @Autowired
+    private SkillSearcherService skillSearcherService;
+
     @Autowired
     private TestRestTemplate restTemplate;
 
     @Autowired
     private WebApplicationContext webApplicationContext;
 
+    @Autowired
+    private EntityManager entityManager;
+
     private CategoryService categoryService;
 
     private Skill skillToTest;
@@ -58,7 +73,8 @@ public class CategoryServiceIntegrationTest {
     @Before
     public void setUp() {
         this.mockMvc = webAppContextSetup(webApplicationContext).build();
-        categoryService = new CategoryService(skillCategoryRepository, skillRepository);
+        categoryService = new CategoryService(skillCategoryRepository, skillRepository, skillTreeSnapshotService,
+                localizedQualifierRepository, skillSearcherService);
         skillToTest = new Skill();
         skillToTest.setQualifier("Test");
     }
@@ -122,6 +138,103 @@ public class CategoryServiceIntegrationTest {
         assertThat(child2_2.getCategory()).isEqualTo(child2);
     }
 
+    @Test
+    @DirtiesContext
+    @Transactional
+    public void moveCategory_shouldUpdateAncestorPathOfSubtree() {
+        // parent1        parent2
+        // |- child1
+        //     |- child2
+        SkillCategory parent1 = skillCategoryRepository.save(SkillCategory.of("Parent1"));
+        SkillCategory parent2 = skillCategoryRepository.save(SkillCategory.of("Parent2"));
+        SkillCategory child1 = skillCategoryRepository.save(SkillCategory.of("Child1", parent1));
+        SkillCategory child2 = skillCategoryRepository.save(SkillCategory.of("Child2", child1));
+        assertThat(child2.getAncestorIds()).containsExactly(parent1.getId(), child1.getId());
+
+        categoryService.moveCategory(child1, parent2);
+        entityManager.flush();
+        entityManager.clear();
+
+        assertThat(skillCategoryRepository.getOne(child1.getId()).getPath()).isEqualTo("/" + parent2.getId() + "/");
+        assertThat(skillCategoryRepository.getOne(child2.getId()).getAncestorIds()).containsExactly(parent2.getId(), child1.getId());
+        assertThat(skillCategoryRepository.getOne(parent1.getId()).getPath()).isEqualTo("/");
+    }
+
+    @Test
+    @DirtiesContext
+    @Transactional
+    public void rebuildAncestorPaths_shouldFillMissingPaths() {
+        SkillCategory parent1 = skillCategoryRepository.save(SkillCategory.of("Parent1"));
+        SkillCategory child1 = skillCategoryRepository.save(SkillCategory.of("Child1", parent1));
+        SkillCategory child2 = skillCategoryRepository.save(SkillCategory.of("Child2", child1));
+        parent1.setPath(null);
+        child2.setPath(null);
+
+        assertThat(categoryService.rebuildAncestorPaths()).isEqualTo(2);
+
+        assertThat(parent1.getPath()).isEqualTo("/");
+        assertThat(child2.getPath()).isEqualTo("/" + parent1.getId() + "/" + child1.getId() + "/");
+    }
+
+    @Test
+    @DirtiesContext
+    @Transactional
+    public void blacklist_andWhitelist_shouldOnlyStoreFlagOfCategory() {
+        // parent1
+        // |- child1
+        //     |- child2
+        // |- child3
+        // parent2
+        SkillCategory parent1 = skillCategoryRepository.save(SkillCategory.of("Parent1"));
+        SkillCategory child1 = skillCategoryRepository.save(SkillCategory.of("Child1", parent1));
+        SkillCategory child2 = skillCategoryRepository.save(SkillCategory.of("Child2", child1));
+        SkillCategory child3 = skillCategoryRepository.save(SkillCategory.of("Child3", parent1));
+        SkillCategory parent2 = skillCategoryRepository.save(SkillCategory.of("Parent2"));
+
+        assertThat(categoryService.blacklist(child1)).isEqualTo(1);
+        assertThat(categoryService.blacklist(child3)).isEqualTo(1);
+        entityManager.flush();
+        entityManager.clear();
+
+        assertThat(skillCategoryRepository.getOne(child1.getId()).isBlacklisted()).isTrue();
+        assertThat(skillCategoryRepository.getOne(child2.getId()).isBlacklisted()).isFalse();
+        assertThat(skillCategoryRepository.getOne(parent1.getId()).isBlacklisted()).isFalse();
+        assertThat(skillCategoryRepository.getOne(parent2.getId()).isBlacklisted()).isFalse();
+
+        assertThat(categoryService.blacklist(skillCategoryRepository.getOne(child2.getId()))).isEqualTo(0);
+        assertThat(categoryService.whitelist(skillCategoryRepository.getOne(child1.getId()))).isEqualTo(1);
+        entityManager.flush();
+        entityManager.clear();
+        assertThat(skillCategoryRepository.getOne(child1.getId()).isBlacklisted()).isFalse();
+        assertThat(skillCategoryRepository.getOne(child2.getId()).isBlacklisted()).isFalse();
+        assertThat(skillCategoryRepository.getOne(child3.getId()).isBlacklisted()).isTrue();
+    }
+
+    @Test
+    @DirtiesContext
+    @Transactional
+    public void clearInheritedBlacklistFlags_shouldOnlyKeepFlagOfTopmostBlacklistedCategory() {
+        SkillCategory parent1 = skillCategoryRepository.save(SkillCategory.of("Parent1"));
+        SkillCategory child1 = skillCategoryRepository.save(SkillCategory.of("Child1", parent1));
+        SkillCategory child2 = skillCategoryRepository.save(SkillCategory.of("Child2", child1));
+        SkillCategory parent2 = skillCategoryRepository.save(SkillCategory.of("Parent2"));
+        // As copied by earlier versions
+        parent1.setBlacklisted(true);
+        child1.setBlacklisted(true);
+        child2.setBlacklisted(true);
+        parent2.setBlacklisted(true);
+
+        assertThat(categoryService.clearInheritedBlacklistFlags()).isEqualTo(2);
+        entityManager.flush();
+        entityManager.clear();
+
+        assertThat(skillCategoryRepository.getOne(parent1.getId()).isBlacklisted()).isTrue();
+        assertThat(skillCategoryRepository.getOne(child1.getId()).isBlacklisted()).isFalse();
+        assertThat(skillCategoryRepository.getOne(child2.getId()).isBlacklisted()).isFalse();
+        assertThat(skillCategoryRepository.getOne(parent2.getId()).isBlacklisted()).isTrue();
+        assertThat(skillCategoryRepository.getOne(child2.getId()).isEffectivelyBlacklisted()).isTrue();
+    }
+
     /**
      * Validates that cyclic tree creation is not possible
      */
@@ -196,4 +309,33 @@ public class CategoryServiceIntegrationTest {
 
 
     }
+
+    @Test
+    @DirtiesContext
+    @Transactional
+    public void testDeleteCategory_shouldDeleteLocalizationsAndVersions() {
+        SkillCategory cat1 = skillCategoryRepository.save(SkillCategory.of("Cat1"));
+        SkillCategory cat2 = SkillCategory.of("Cat2", cat1);
+        cat2.addLocale(Locale.GERMAN, "Kat2");
+        skillCategoryRepository.save(cat2);
+        Skill skill1 = new Skill("Skill1", new HashSet<>(), cat1);
+        skill1.addLocale(Locale.GERMAN, "Faehigkeit1");
+        skillRepository.save(skill1);
+        Skill skill2 = new Skill("Skill2", new HashSet<>(), cat2);
+        skill2.addLocale(Locale.GERMAN, "Faehigkeit2");
+        skill2.getVersions().add("1.0");
+        skillRepository.save(skill2);
+        entityManager.flush();
+
+        categoryService.deleteCategory(cat1);
+        entityManager.clear();
+
+        assertThat(skillCategoryRepository.count()).isZero();
+        assertThat(skillRepository.count()).isZero();
+        assertThat(localizedQualifierRepository.count()).isZero();
+        assertThat(entityManager.createNativeQuery("select count(*) from skill_versions").getSingleResult())
+                .isEqualTo(BigInteger.ZERO);
+        assertThat(entityManager.createNativeQuery("select count(*) from skill_qualifiers").getSingleResult())
+                .isEqualTo(BigInteger.ZERO);
+    }
 }
@@ -1,7 +1,9 @@
 package de.hbt.power.service;
 
+import de.hbt.power.exception.SkillServiceErrorType;
 import de.hbt.power.exception.SkillServiceException;
 import de.hbt.power.model.SkillCategory;
+import de.hbt.power.repo.LocalizedQualifierRepository;
 import de.hbt.power.repo.SkillCategoryRepository;
 import de.hbt.power.repo.SkillRepository;
 import org.junit.Before;
@@ -9,6 +11,7 @@ import org.junit.Test;
 import org.mockito.Mock;
 
 import static de.hbt.power.SkillServiceTestUtils.expectThrown;
+import static java.util.Arrays.asList;
 import static java.util.Optional.of;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
@@ -23,13 +26,23 @@ public class CategoryServiceTest {
     @Mock
     private SkillRepository skillRepository;
 
+    @Mock
+    private SkillTreeSnapshotService skillTreeSnapshotService;
+
+    @Mock
+    private LocalizedQualifierRepository localizedQualifierRepository;
+
+    @Mock
+    private SkillSearcherService skillSearcherService;
+
     private CategoryService categoryService;
     private SkillCategory skillCategory;
 
     @Before
     public void setUp() throws Exception {
         initMocks(this);
-        categoryService = new CategoryService(skillCategoryRepository, skillRepository);
+        categoryService = new CategoryService(skillCategoryRepository, skillRepository, skillTreeSnapshotService,
+                localizedQualifierRepository, skillSearcherService);
         skillCategory = new SkillCategory().toBuilder()
                 .qualifier("Baking&Cooking")
                 .id(5)
@@ -73,7 +86,8 @@ public class CategoryServiceTest {
         SkillCategory parent = new SkillCategory().toBuilder().id(99).blacklisted(true).qualifier("Parenting").build();
         when(skillCategoryRepository.findById(99)).thenReturn(of(parent));
         SkillCategory category = categoryService.createSkillCategory(skillCategory, 99);
-        assertThat(category.isBlacklisted()).isTrue();
+        assertThat(category.isEffectivelyBlacklisted()).isTrue();
+        assertThat(category.isBlacklisted()).isFalse();
     }
 
     @Test
@@ -84,4 +98,17 @@ public class CategoryServiceTest {
         assertThat(exception.getMessage()).isEqualTo("Category Baking&Cooking already exists.");
     }
 
+    @Test
+    public void whenWhitelisting_belowBlacklistedCategory_shouldThrow() {
+        SkillCategory grandParent = new SkillCategory().toBuilder().id(98).blacklisted(true).qualifier("Kitchen").build();
+        SkillCategory parent = new SkillCategory().toBuilder().id(99).qualifier("Parenting").category(grandParent).build();
+        skillCategory.setCategory(parent);
+        skillCategory.setPath("/98/99/");
+        when(skillCategoryRepository.findAllById(asList(98, 99))).thenReturn(asList(grandParent, parent));
+        SkillServiceException exception = expectThrown(() -> categoryService.whitelist(skillCategory), SkillServiceException.class);
+        assertThat(exception.getSkillServiceErrorType()).isEqualTo(SkillServiceErrorType.ERR_CATEGORY_BLACKLISTED_BY_ANCESTOR);
+        assertThat(exception.getMessage()).contains("Kitchen");
+        verify(skillTreeSnapshotService, never()).categoryChanged(any());
+    }
+
 }
@@ -0,0 +1,173 @@
+package de.hbt.power.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hibernate.search.backend.LuceneWork;
+import org.hibernate.search.indexes.spi.IndexManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class IndexWorkQueueTest {
+
+    @Mock
+    private IndexManager indexManager;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private IndexWorkQueue queue;
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+        when(indexManager.getIndexName()).thenReturn("Skill");
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        queue.shutdown();
+    }
+
+    @Test
+    public void shouldApplyQueuedChangeSetsWithOneCommit() throws InterruptedException {
+        start(1000, 10, 500, 0);
+        LuceneWork first = mock(LuceneWork.class);
+        LuceneWork second = mock(LuceneWork.class);
+        LuceneWork third = mock(LuceneWork.class);
+
+        queue.submit(indexManager, singletonList(first), null);
+        queue.submit(indexManager, singletonList(second), null);
+        queue.submit(indexManager, singletonList(third), null);
+
+        assertThat(queue.awaitIdle(5000)).isTrue();
+        verify(indexManager).performOperations(asList(first, second, third), null);
+        assertThat(count("skill.search.index.work", "applied")).isEqualTo(3);
+        assertThat(registry.get("skill.search.index.queue.depth").gauge().value()).isZero();
+    }
+
+    @Test
+    public void whenQueueIsFull_shouldWaitForSpace() throws Exception {
+        start(1, 1, 0, 0);
+        CountDownLatch applying = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            applying.countDown();
+            release.await();
+            return null;
+        }).when(indexManager).performOperations(anyList(), any());
+
+        queue.submit(indexManager, singletonList(mock(LuceneWork.class)), null);
+        assertThat(applying.await(5, TimeUnit.SECONDS)).isTrue();
+        queue.submit(indexManager, singletonList(mock(LuceneWork.class)), null);
+        Thread writer = new Thread(() -> queue.submit(indexManager, singletonList(mock(LuceneWork.class)), null));
+        writer.start();
+        while (count("skill.search.index.queue.full", null) == 0) {
+            Thread.sleep(10);
+        }
+
+        assertThat(queue.awaitIdle(100)).isFalse();
+        assertThat(queue.getLagMillis()).isPositive();
+        release.countDown();
+        writer.join(5000);
+        assertThat(queue.awaitIdle(5000)).isTrue();
+        assertThat(count("skill.search.index.work", "applied")).isEqualTo(3);
+    }
+
+    @Test
+    public void whenApplyingFails_shouldRetryAndDrop() throws InterruptedException {
+        start(1000, 10, 0, 2);
+        doThrow(new IllegalStateException("Index is closed")).when(indexManager).performOperations(anyList(), any());
+
+        queue.submit(indexManager, singletonList(mock(LuceneWork.class)), null);
+
+        assertThat(queue.awaitIdle(5000)).isTrue();
+        verify(indexManager, times(3)).performOperations(anyList(), any());
+        assertThat(count("skill.search.index.work", "retried")).isEqualTo(2);
+        assertThat(count("skill.search.index.work", "dropped")).isEqualTo(1);
+        assertThat(count("skill.search.index.work", "applied")).isZero();
+    }
+
+    @Test
+    public void whenApplyingFails_shouldDoubleDelayBetweenRetries() throws InterruptedException {
+        start(1000, 10, 0, 2, 50);
+        List<Long> attempts = new CopyOnWriteArrayList<>();
+        doAnswer(invocation -> {
+            attempts.add(System.nanoTime());
+            throw new IllegalStateException("Index is closed");
+        }).when(indexManager).performOperations(anyList(), any());
+
+        queue.submit(indexManager, singletonList(mock(LuceneWork.class)), null);
+
+        assertThat(queue.awaitIdle(5000)).isTrue();
+        assertThat(attempts).hasSize(3);
+        assertThat(TimeUnit.NANOSECONDS.toMillis(attempts.get(1) - attempts.get(0))).isGreaterThanOrEqualTo(50);
+        assertThat(TimeUnit.NANOSECONDS.toMillis(attempts.get(2) - attempts.get(1))).isGreaterThanOrEqualTo(100);
+    }
+
+    @Test
+    public void whenInterruptedWhileWaitingToRetry_shouldKeepChangesPending() throws InterruptedException {
+        start(1000, 10, 0, 2, 200);
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch failed = new CountDownLatch(1);
+        AtomicReference<Thread> worker = new AtomicReference<>();
+        doAnswer(invocation -> {
+            worker.set(Thread.currentThread());
+            failed.countDown();
+            if (attempts.incrementAndGet() <= 3) {
+                throw new IllegalStateException("Index is closed");
+            }
+            return null;
+        }).when(indexManager).performOperations(anyList(), any());
+
+        queue.submit(indexManager, singletonList(mock(LuceneWork.class)), null);
+        assertThat(failed.await(5, TimeUnit.SECONDS)).isTrue();
+        worker.get().interrupt();
+
+        assertThat(queue.awaitIdle(5000)).isTrue();
+        assertThat(attempts.get()).isEqualTo(4);
+        assertThat(count("skill.search.index.work", "dropped")).isZero();
+        assertThat(count("skill.search.index.work", "applied")).isEqualTo(1);
+    }
+
+    @Test
+    public void inModeSync_shouldApplyChangesAtOnce() throws InterruptedException {
+        queue = new IndexWorkQueue(new SkillSearchCache(10), "sync", 1000, 10, 0, 0, 0);
+        LuceneWork work = mock(LuceneWork.class);
+
+        queue.submit(indexManager, singletonList(work), null);
+
+        verify(indexManager).performOperations(singletonList(work), null);
+        assertThat(queue.awaitIdle(0)).isTrue();
+    }
+
+    private void start(int queueSize, int batchSize, long flushInterval, int maxRetries) {
+        start(queueSize, batchSize, flushInterval, maxRetries, 0);
+    }
+
+    private void start(int queueSize, int batchSize, long flushInterval, int maxRetries, long retryDelay) {
+        queue = new IndexWorkQueue(new SkillSearchCache(10), IndexWorkQueue.MODE_ASYNC, queueSize, batchSize,
+                flushInterval, maxRetries, retryDelay);
+        queue.bindTo(registry);
+    }
+
+    private double count(String name, String result) {
+        return result == null
+                ? registry.get(name).functionCounter().count()
+                : registry.get(name).tag("result", result).functionCounter().count();
+    }
+}
@@ -168,7 +168,7 @@ public class SkillControllerTest {
             Skill skill = new Skill();
             SkillCategory c = SkillCategory.custom("Kategorie"), copy;
             c.setId(1);
-            skillCategoryRepository.save(c);
+            c = skillCategoryRepository.save(c);
             skill.setQualifier(skillName);
             skill.setCategory(c);
             skillRepository.save(skill);
@@ -0,0 +1,193 @@
+package de.hbt.power.service;
+
+import de.hbt.power.Benchmark;
+import de.hbt.power.model.LocalizedQualifier;
+import de.hbt.power.model.Skill;
+import de.hbt.power.model.SkillCategory;
+import de.hbt.power.model.search.SkillDocValuesBridge;
+import de.hbt.power.service.SkillDocValues.LocalizedValue;
+import de.hbt.power.service.SkillDocValues.SkillValues;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.function.Consumer;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the size of the skill index and the time to read the values of big result pages, with the values read
+ * from stored fields (as before) and from the doc values written by {@link SkillDocValuesBridge}.
+ */
+@Slf4j
+public class SkillDocValuesBenchmarkTest {
+
+    private static final int SKILL_COUNT = 20_000;
+    private static final int PAGE_SIZE = 500;
+    private static final int RUNS = 10;
+
+    private static final String[] SEARCH_TERMS = {"ba", "ja", "ko", "ma", "se", "pr", "qu", "en", "zu", "ti"};
+
+    private static final Set<String> STORED_FIELDS = new HashSet<>(Arrays.asList(
+            "id", "qualifier", "categoryId", "qualifiers.locale", "qualifiers.qualifier"));
+
+    private final Directory stored = new RAMDirectory();
+
+    private final Directory docValues = new RAMDirectory();
+
+    @Before
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        SkillDocValuesBridge bridge = new SkillDocValuesBridge();
+        try (IndexWriter storedWriter = new IndexWriter(stored, new IndexWriterConfig(new StandardAnalyzer()));
+             IndexWriter docValuesWriter = new IndexWriter(docValues, new IndexWriterConfig(new StandardAnalyzer()))) {
+            for (int i = 0; i < SKILL_COUNT; i++) {
+                Skill skill = skill(i, random);
+                Document storedDocument = new Document();
+                storedDocument.add(new StringField("id", String.valueOf(skill.getId()), Field.Store.YES));
+                storedDocument.add(new TextField("qualifier", skill.getQualifier(), Field.Store.YES));
+                storedDocument.add(new StringField("categoryId", String.valueOf(skill.getCategory().getId()), Field.Store.YES));
+                Document docValuesDocument = new Document();
+                docValuesDocument.add(new StringField("id", String.valueOf(skill.getId()), Field.Store.YES));
+                docValuesDocument.add(new TextField("qualifier", skill.getQualifier(), Field.Store.NO));
+                for (LocalizedQualifier localized : skill.getQualifiers()) {
+                    storedDocument.add(new TextField("qualifiers.locale", localized.getLocale(), Field.Store.YES));
+                    storedDocument.add(new TextField("qualifiers.qualifier", localized.getQualifier(), Field.Store.YES));
+                    docValuesDocument.add(new TextField("qualifiers.qualifier", localized.getQualifier(), Field.Store.NO));
+                }
+                bridge.set("values", skill, docValuesDocument, null);
+                storedWriter.addDocument(storedDocument);
+                docValuesWriter.addDocument(docValuesDocument);
+            }
+            storedWriter.forceMerge(1);
+            docValuesWriter.forceMerge(1);
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        stored.close();
+        docValues.close();
+    }
+
+    @Test
+    public void docValues_shouldReturnSameValuesAsStoredFields() throws IOException {
+        try (DirectoryReader storedReader = DirectoryReader.open(stored);
+             DirectoryReader docValuesReader = DirectoryReader.open(docValues)) {
+            List<String> fromStoredFields = new ArrayList<>();
+            List<String> fromDocValues = new ArrayList<>();
+            projectStoredFields(storedReader, "ja", values -> fromStoredFields.add(format(values)));
+            projectDocValues(docValuesReader, "ja", values -> fromDocValues.add(format(values)));
+
+            assertThat(fromDocValues).hasSize(PAGE_SIZE).isEqualTo(fromStoredFields);
+        }
+    }
+
+    @Category(Benchmark.class)
+    @Test
+    public void docValues_shouldBeFasterThanStoredFields() throws IOException {
+        try (DirectoryReader storedReader = DirectoryReader.open(stored);
+             DirectoryReader docValuesReader = DirectoryReader.open(docValues)) {
+            long storedTime = Long.MAX_VALUE;
+            long docValuesTime = Long.MAX_VALUE;
+            for (int i = 0; i < RUNS; i++) {
+                long start = System.nanoTime();
+                for (String term : SEARCH_TERMS) {
+                    projectStoredFields(storedReader, term, values -> { });
+                }
+                storedTime = Math.min(storedTime, System.nanoTime() - start);
+                start = System.nanoTime();
+                for (String term : SEARCH_TERMS) {
+                    projectDocValues(docValuesReader, term, values -> { });
+                }
+                docValuesTime = Math.min(docValuesTime, System.nanoTime() - start);
+            }
+            log.info("Index of " + SKILL_COUNT + " skills: stored fields " + size(stored) / 1024 + " KiB, doc values "
+                    + size(docValues) / 1024 + " KiB; Reading " + SEARCH_TERMS.length + " pages of " + PAGE_SIZE
+                    + " hits: stored fields " + storedTime / 1_000_000.0 + "ms, doc values " + docValuesTime / 1_000_000.0 + "ms");
+            assertThat(docValuesTime).isLessThan(storedTime);
+        }
+    }
+
+    private static void projectStoredFields(DirectoryReader reader, String term, Consumer<SkillValues> consumer) throws IOException {
+        IndexSearcher searcher = new IndexSearcher(reader);
+        for (ScoreDoc scoreDoc : searcher.search(new TermQuery(new Term("qualifier", term)), PAGE_SIZE).scoreDocs) {
+            Document document = searcher.doc(scoreDoc.doc, STORED_FIELDS);
+            String[] locales = document.getValues("qualifiers.locale");
+            String[] qualifiers = document.getValues("qualifiers.qualifier");
+            List<LocalizedValue> localized = new ArrayList<>();
+            for (int i = 0; i < locales.length; i++) {
+                localized.add(new LocalizedValue(locales[i], qualifiers[i]));
+            }
+            consumer.accept(new SkillValues(Integer.valueOf(document.get("id")), document.get("qualifier"),
+                    Integer.valueOf(document.get("categoryId")), localized));
+        }
+    }
+
+    private static void projectDocValues(DirectoryReader reader, String term, Consumer<SkillValues> consumer) throws IOException {
+        IndexSearcher searcher = new IndexSearcher(reader);
+        SkillDocValues docValues = new SkillDocValues(reader);
+        for (ScoreDoc scoreDoc : searcher.search(new TermQuery(new Term("qualifier", term)), PAGE_SIZE).scoreDocs) {
+            consumer.accept(docValues.get(scoreDoc.doc));
+        }
+    }
+
+    /**
+     * The doc values are sorted, so the localized qualifiers are compared in sorted order
+     */
+    private static String format(SkillValues values) {
+        return values.getId() + ";" + values.getQualifier() + ";" + values.getCategoryId() + ";" + values.getLocalizedQualifiers().stream()
+                .map(localized -> localized.getLocale() + "=" + localized.getQualifier())
+                .sorted()
+                .collect(toList());
+    }
+
+    private static long size(Directory directory) throws IOException {
+        long size = 0;
+        for (String file : directory.listAll()) {
+            size += directory.fileLength(file);
+        }
+        return size;
+    }
+
+    private static Skill skill(int id, Random random) {
+        SkillCategory category = SkillCategory.of("Category " + id % 100);
+        category.setId(id % 100);
+        Set<LocalizedQualifier> qualifiers = new HashSet<>();
+        for (String locale : Arrays.asList("deu", "eng")) {
+            LocalizedQualifier localized = new LocalizedQualifier();
+            localized.setLocale(locale);
+            localized.setQualifier(word(random) + " " + word(random));
+            qualifiers.add(localized);
+        }
+        Skill skill = new Skill(word(random) + " " + word(random) + " " + word(random), qualifiers, category);
+        skill.setId(id);
+        return skill;
+    }
+
+    private static String word(Random random) {
+        String[] syllables = {"ja", "va", "ko", "tlin", "ba", "sh", "ma", "ven", "se", "le", "ni", "um", "pr", "o", "qu",
+                "ar", "kus", "en", "zu", "ti", "ta", "rex"};
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < 1 + random.nextInt(3); i++) {
+            word.append(syllables[random.nextInt(syllables.length)]);
+        }
+        return word.toString();
+    }
+}
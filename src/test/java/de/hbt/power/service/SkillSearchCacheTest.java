@@ -0,0 +1,63 @@
+package de.hbt.power.service;
+
+import de.hbt.power.model.dto.SkillSearchHit;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SkillSearchCacheTest {
+
+    private final SkillSearchCache cache = new SkillSearchCache(2);
+
+    private static final List<SkillSearchHit> RESULT = Collections.singletonList(SkillSearchHit.builder().qualifier("Java").build());
+
+    @Test
+    public void shouldNormalizeTerm() {
+        cache.put(cache.getGeneration(), SkillSearchQuery.of(" JaV ", 10), RESULT);
+
+        assertThat(cache.get(SkillSearchQuery.of("jav", 10))).contains(RESULT);
+        assertThat(cache.get(SkillSearchQuery.of("jav", 20))).isEmpty();
+    }
+
+    @Test
+    public void whenFull_shouldEvictLeastRecentlyUsed() {
+        cache.put(cache.getGeneration(), SkillSearchQuery.of("a", 10), RESULT);
+        cache.put(cache.getGeneration(), SkillSearchQuery.of("b", 10), RESULT);
+        cache.get(SkillSearchQuery.of("a", 10));
+        cache.put(cache.getGeneration(), SkillSearchQuery.of("c", 10), RESULT);
+
+        assertThat(cache.get(SkillSearchQuery.of("b", 10))).isEmpty();
+        assertThat(cache.get(SkillSearchQuery.of("a", 10))).contains(RESULT);
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void whenInvalidatedDuringSearch_shouldNotStoreResult() {
+        long generation = cache.getGeneration();
+        cache.invalidate();
+        cache.put(generation, SkillSearchQuery.of("java", 10), RESULT);
+
+        assertThat(cache.get(SkillSearchQuery.of("java", 10))).isEmpty();
+    }
+
+    @Test
+    public void shouldReportStatistics() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        cache.bindTo(registry);
+        cache.put(cache.getGeneration(), SkillSearchQuery.of("a", 10), RESULT);
+        cache.put(cache.getGeneration(), SkillSearchQuery.of("b", 10), RESULT);
+        cache.put(cache.getGeneration(), SkillSearchQuery.of("c", 10), RESULT);
+        cache.get(SkillSearchQuery.of("c", 10));
+        cache.get(SkillSearchQuery.of("a", 10));
+
+        assertThat(registry.get("cache.gets").tag("cache", "skill-search").tag("result", "hit").functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("cache.gets").tag("result", "miss").functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("cache.evictions").functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("cache.size").gauge().value()).isEqualTo(2);
+        assertThat(registry.get("cache.hit.ratio").gauge().value()).isEqualTo(0.5);
+    }
+}
@@ -0,0 +1,366 @@
+package de.hbt.power.service;
+
+import de.hbt.power.model.LocalizedQualifier;
+import de.hbt.power.model.Skill;
+import de.hbt.power.model.SkillCategory;
+import de.hbt.power.model.dto.IndexConsistencyReport;
+import de.hbt.power.model.dto.IndexStatistics;
+import de.hbt.power.model.dto.IndexStatus;
+import de.hbt.power.model.dto.SkillSearchBatchResult;
+import de.hbt.power.model.dto.SkillSearchHit;
+import de.hbt.power.repo.SkillCategoryRepository;
+import de.hbt.power.repo.SkillRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@RunWith(SpringJUnit4ClassRunner.class)
+@ActiveProfiles("test")
+public class SkillSearchIndexITest {
+
+    @Autowired
+    private SkillRepository skillRepository;
+
+    @Autowired
+    private SkillCategoryRepository skillCategoryRepository;
+
+    @Autowired
+    private CategoryService categoryService;
+
+    @Autowired
+    private SkillSearcherService skillSearcherService;
+
+    @Autowired
+    private SearchIndexMaintenanceService searchIndexMaintenanceService;
+
+    @Autowired
+    private IndexSnapshotService indexSnapshotService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private SkillTreeSnapshotService skillTreeSnapshotService;
+
+    @Autowired
+    private IndexWorkQueue indexWorkQueue;
+
+    @Rule
+    public TemporaryFolder sharedDirectory = new TemporaryFolder();
+
+    @Value("${skill-search.lucene.max-fuzzy-expansions}")
+    private int maxFuzzyExpansions;
+
+    private SkillCategory parent;
+
+    private SkillCategory other;
+
+    private Skill skill;
+
+    @Before
+    public void setUp() {
+        parent = categoryService.createSkillCategory(SkillCategory.of("IndexParent"), null);
+        other = categoryService.createSkillCategory(SkillCategory.of("IndexOther"), null);
+        SkillCategory child = categoryService.createSkillCategory(SkillCategory.of("IndexChild"), parent.getId());
+        skill = skillRepository.save(new Skill("Zyxwvutsrq", new HashSet<>(), child));
+    }
+
+    @After
+    public void tearDown() {
+        categoryService.deleteCategory(skillCategoryRepository.findById(parent.getId()).orElse(null));
+        categoryService.deleteCategory(skillCategoryRepository.findById(other.getId()).orElse(null));
+    }
+
+    @Test
+    public void reindexSkills_shouldRestoreMissingDocument() {
+        skillSearcherService.purgeFromIndex(singletonList(skill.getId()), emptyList());
+        assertThat(skillSearcherService.searchSkill("zyxwv", 10)).isEmpty();
+
+        assertThat(skillSearcherService.reindexSkills(singletonList(skill.getId()))).isEqualTo(1);
+
+        assertThat(skillSearcherService.searchSkill("zyxwv", 10)).containsExactly("Zyxwvutsrq");
+    }
+
+    @Test
+    public void reindexSubtree_shouldIndexSkillsOfChildCategories() {
+        skillSearcherService.purgeFromIndex(singletonList(skill.getId()), emptyList());
+
+        int reindexed = categoryService.reindexSubtree(skillCategoryRepository.findById(parent.getId()).orElse(null));
+
+        assertThat(reindexed).isEqualTo(1);
+        assertThat(skillSearcherService.searchSkill("zyxwv", 10)).containsExactly("Zyxwvutsrq");
+    }
+
+    @Test
+    public void checkConsistency_shouldReportAndReindexMissingSkill() {
+        skillSearcherService.purgeFromIndex(singletonList(skill.getId()), emptyList());
+
+        IndexConsistencyReport report = searchIndexMaintenanceService.checkConsistency(false);
+        assertThat(report.getMissing()).contains(skill.getId());
+        assertThat(report.getRepaired()).isZero();
+        assertThat(skillSearcherService.searchSkill("zyxwv", 10)).isEmpty();
+
+        assertThat(searchIndexMaintenanceService.checkConsistency(true).getRepaired()).isPositive();
+
+        assertThat(skillSearcherService.searchSkill("zyxwv", 10)).containsExactly("Zyxwvutsrq");
+        assertThat(searchIndexMaintenanceService.checkConsistency(false).getMissing()).doesNotContain(skill.getId());
+    }
+
+    @Test
+    public void merge_shouldRemoveDeletedDocuments() {
+        skillSearcherService.reindexSkills(singletonList(skill.getId()));
+
+        List<IndexStatistics> statistics = searchIndexMaintenanceService.merge();
+
+        assertThat(statistics).extracting(IndexStatistics::getIndexName)
+                .containsExactly(Skill.class.getName(), LocalizedQualifier.class.getName());
+        assertThat(statistics.get(0).getSegmentCount()).isEqualTo(1);
+        assertThat(statistics.get(0).getDeletedDocuments()).isZero();
+        assertThat(statistics.get(0).getMaxDocuments()).isPositive();
+    }
+
+    @Test
+    public void installSnapshot_shouldReplaceIndexWithPublishedOne() {
+        Path shared = sharedDirectory.getRoot().toPath();
+        long version = indexSnapshotService.publish(shared, System.currentTimeMillis());
+        assertThat(shared.resolve(IndexSnapshotService.LATEST_FILE)).hasContent(String.valueOf(version));
+        assertThat(shared.resolve(IndexSnapshotService.SNAPSHOT_PREFIX + version)
+                .resolve(IndexSnapshotService.MANIFEST_FILE)).exists();
+        skillSearcherService.purgeFromIndex(singletonList(skill.getId()), emptyList());
+
+        indexSnapshotService.install(shared, version);
+
+        assertThat(skillSearcherService.searchSkill("zyxwv", 10)).containsExactly("Zyxwvutsrq");
+        assertThat(indexSnapshotService.getStatus().getCurrentVersion()).isEqualTo(version);
+        assertThat(indexSnapshotService.installLatest(shared)).isFalse();
+    }
+
+    @Test
+    public void installSnapshot_shouldIndexSkillsModifiedSinceItWasBuilt() {
+        Path shared = sharedDirectory.getRoot().toPath();
+        long version = indexSnapshotService.publish(shared, System.currentTimeMillis());
+        skill.setQualifier("Mnbvcxylkj");
+        skill = skillRepository.save(skill);
+
+        indexSnapshotService.install(shared, version);
+
+        // The snapshot still contains the old qualifier
+        assertThat(skillSearcherService.searchSkill("zyxwv", 10)).isEmpty();
+        assertThat(skillSearcherService.searchSkill("mnbvc", 10)).containsExactly("Mnbvcxylkj");
+    }
+
+    @Test
+    public void installSnapshot_whenChecksumDiffers_shouldKeepIndex() throws Exception {
+        Path shared = sharedDirectory.getRoot().toPath();
+        long version = indexSnapshotService.publish(shared, System.currentTimeMillis());
+        Path index = shared.resolve(IndexSnapshotService.SNAPSHOT_PREFIX + version).resolve(Skill.class.getName());
+        try (Stream<Path> files = Files.list(index)) {
+            Path file = files.filter(path -> path.getFileName().toString().startsWith("segments")).findFirst().get();
+            Files.write(file, new byte[]{1, 2, 3});
+        }
+        skillSearcherService.purgeFromIndex(singletonList(skill.getId()), emptyList());
+
+        assertThatThrownBy(() -> indexSnapshotService.install(shared, version))
+                .isInstanceOf(UncheckedIOException.class)
+                .hasMessageContaining("Checksum");
+
+        assertThat(skillSearcherService.searchSkill("zyxwv", 10)).isEmpty();
+        skillSearcherService.reindexSkills(singletonList(skill.getId()));
+    }
+
+    @Test
+    public void searchHits_shouldContainIdAndCategoryPath() {
+        List<SkillSearchHit> hits = skillSearcherService.search(SkillSearchQuery.of("zyxwv", 10));
+
+        assertThat(hits).hasSize(1);
+        assertThat(hits.get(0).getId()).isEqualTo(skill.getId());
+        assertThat(hits.get(0).getQualifier()).isEqualTo("Zyxwvutsrq");
+        assertThat(hits.get(0).getScore()).isPositive();
+        assertThat(hits.get(0).getCategoryId()).isEqualTo(skill.getCategory().getId());
+        assertThat(hits.get(0).getCategoryPath()).containsExactly("IndexParent", "IndexChild");
+    }
+
+    @Test
+    public void searchHits_withSameQualifier_shouldContainEverySkill() {
+        Skill namesake = skillRepository.save(new Skill("Zyxwvutsrq", new HashSet<>(), other));
+
+        assertThat(skillSearcherService.search(SkillSearchQuery.of("zyxwv", 10)))
+                .extracting(SkillSearchHit::getId).containsExactlyInAnyOrder(skill.getId(), namesake.getId());
+    }
+
+    @Test
+    public void searchInCategory_shouldOnlyFindSkillsBelowCategory() {
+        assertThat(skillSearcherService.search(inCategory("zyxwv", parent.getId())))
+                .extracting(SkillSearchHit::getQualifier).containsExactly("Zyxwvutsrq");
+        assertThat(skillSearcherService.search(inCategory("zyxwv", skill.getCategory().getId())))
+                .extracting(SkillSearchHit::getQualifier).containsExactly("Zyxwvutsrq");
+        assertThat(skillSearcherService.search(inCategory("zyxwv", other.getId()))).isEmpty();
+    }
+
+    @Test
+    public void whenCategoryMoved_shouldFindSkillsBelowNewParent() {
+        boolean stillManaged = new TransactionTemplate(transactionManager).execute(status -> {
+            SkillCategory moved = categoryService.moveCategory(
+                    skillCategoryRepository.findById(skill.getCategory().getId()).orElse(null),
+                    skillCategoryRepository.findById(other.getId()).orElse(null));
+            return entityManager.contains(moved) && entityManager.contains(moved.getCategory());
+        });
+
+        // Reindexing the subtree must not detach the entities of the caller
+        assertThat(stillManaged).isTrue();
+
+        assertThat(skillSearcherService.search(inCategory("zyxwv", parent.getId()))).isEmpty();
+        assertThat(skillSearcherService.search(inCategory("zyxwv", other.getId())))
+                .extracting(SkillSearchHit::getQualifier).containsExactly("Zyxwvutsrq");
+    }
+
+    @Test
+    public void whenCategoryBlacklisted_shouldOnlyFindItsSkillsIfRequested() {
+        setBlacklist(parent, true);
+
+        assertThat(skillSearcherService.searchSkill("zyxwv", 10)).isEmpty();
+        assertThat(skillSearcherService.search(inCategory("zyxwv", skill.getCategory().getId()))).isEmpty();
+        assertThat(skillSearcherService.search(SkillSearchQuery.builder().term("zyxwv").maxResults(10).includeBlacklisted(true).build()))
+                .extracting(SkillSearchHit::getQualifier).containsExactly("Zyxwvutsrq");
+
+        setBlacklist(parent, false);
+
+        assertThat(skillSearcherService.searchSkill("zyxwv", 10)).containsExactly("Zyxwvutsrq");
+    }
+
+    @Test
+    public void searchBatch_shouldReturnHitsOfEachTermInOrder() {
+        List<SkillSearchBatchResult> results = skillSearcherService.searchBatch(Arrays.asList(
+                SkillSearchQuery.of("zyxwv", 10), SkillSearchQuery.of("xqjzvkpw", 10), SkillSearchQuery.of("zyxwvutsrq", 10)));
+
+        assertThat(results).extracting(SkillSearchBatchResult::getTerm).containsExactly("zyxwv", "xqjzvkpw", "zyxwvutsrq");
+        assertThat(results).allMatch(SkillSearchBatchResult::isComplete);
+        assertThat(results.get(0).getHits()).extracting(SkillSearchHit::getQualifier).containsExactly("Zyxwvutsrq");
+        assertThat(results.get(1).getHits()).isEmpty();
+        assertThat(results.get(2).getHits()).extracting(SkillSearchHit::getId).containsExactly(skill.getId());
+    }
+
+    @Test
+    public void search_withoutMaxResults_shouldFindNothing() {
+        assertThat(skillSearcherService.searchSkill("zyxwv", 0)).isEmpty();
+        assertThat(skillSearcherService.searchBatch(singletonList(SkillSearchQuery.of("zyxwv", 0))))
+                .hasSize(1)
+                .allSatisfy(result -> assertThat(result.getHits()).isEmpty());
+    }
+
+    @Test
+    public void searchFuzzy_shouldStopExpandingAtLimit() {
+        // All within two edits of the search term, which is not a skill itself
+        for (int i = 1; i <= maxFuzzyExpansions + 1; i++) {
+            String qualifier = "Qwxyz" + (char) ('a' + i / 26) + (char) ('a' + i % 26);
+            skillRepository.save(new Skill(qualifier, new HashSet<>(), skill.getCategory()));
+        }
+        long limitHits = skillSearcherService.getFuzzyExpansionLimitHits();
+
+        SkillSearchResult result = skillSearcherService.searchWithStatus(SkillSearchQuery.of("qwxyzaa", 100));
+
+        assertThat(result.getHits()).hasSize(maxFuzzyExpansions);
+        assertThat(result.isTruncated()).isFalse();
+        assertThat(skillSearcherService.getFuzzyExpansionLimitHits()).isEqualTo(limitHits + 1);
+    }
+
+    @Test
+    public void whenSkillSaved_shouldNotAnswerFromCache() {
+        assertThat(skillSearcherService.searchSkill("qwertzu", 10)).isEmpty();
+
+        skillRepository.save(new Skill("Qwertzuiop", new HashSet<>(), skill.getCategory()));
+
+        assertThat(skillSearcherService.searchSkill("qwertzu", 10)).containsExactly("Qwertzuiop");
+    }
+
+    @Test
+    public void whenRebuildRequestedTwice_shouldRunOnceAndReportProgress() throws Exception {
+        CompletableFuture<Void> first = CompletableFuture.runAsync(this::rebuild);
+        CompletableFuture<Void> second = CompletableFuture.runAsync(this::rebuild);
+        first.get();
+        second.get();
+
+        IndexStatus status = skillSearcherService.getSearchIndexStatus();
+        assertThat(status.getState()).isEqualTo(IndexStatus.State.COMPLETED);
+        assertThat(status.getDocumentsProcessed()).isPositive().isEqualTo(status.getDocumentsTotal());
+        assertThat(status.getFinishedAt()).isGreaterThanOrEqualTo(status.getStartedAt());
+        assertThat(skillSearcherService.searchSkill("zyxwv", 10)).containsExactly("Zyxwvutsrq");
+    }
+
+    @Test
+    public void trieEngine_shouldFilterAndCompleteHitsLikeLucene() {
+        skillTreeSnapshotService.refresh();
+        SkillSearcherService trieSearcher = new SkillSearcherService(entityManagerFactory, entityManager,
+                new SkillTypeaheadService(skillRepository, 2, 0), skillRepository, new SkillSearchCache(10),
+                skillTreeSnapshotService, indexWorkQueue, SkillSearcherService.ENGINE_TRIE,
+                5, 100, 1000, 1, 1, 2000, 200, 500, 50);
+        try {
+            List<SkillSearchHit> hits = trieSearcher.search(SkillSearchQuery.of("zyxwv", 10));
+            assertThat(hits).extracting(SkillSearchHit::getId).containsExactly(skill.getId());
+            assertThat(hits.get(0).getCategoryId()).isEqualTo(skill.getCategory().getId());
+            assertThat(hits.get(0).getCategoryPath()).containsExactly("IndexParent", "IndexChild");
+            assertThat(trieSearcher.search(inCategory("zyxwv", parent.getId()))).hasSize(1);
+            assertThat(trieSearcher.search(inCategory("zyxwv", other.getId()))).isEmpty();
+
+            setBlacklist(parent, true);
+
+            assertThat(trieSearcher.search(SkillSearchQuery.of("zyxwv", 10))).isEmpty();
+            assertThat(trieSearcher.search(SkillSearchQuery.builder().term("zyxwv").maxResults(10).includeBlacklisted(true).build()))
+                    .extracting(SkillSearchHit::getId).containsExactly(skill.getId());
+        } finally {
+            setBlacklist(parent, false);
+            trieSearcher.shutdown();
+        }
+    }
+
+    private void setBlacklist(SkillCategory category, boolean blacklisted) {
+        new TransactionTemplate(transactionManager).execute(status -> categoryService.setBlacklist(
+                skillCategoryRepository.findById(category.getId()).orElse(null), blacklisted));
+    }
+
+    private static SkillSearchQuery inCategory(String term, Integer categoryId) {
+        return SkillSearchQuery.builder().term(term).maxResults(10).categoryId(categoryId).build();
+    }
+
+    private void rebuild() {
+        try {
+            skillSearcherService.buildSearchIndexSync();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package de.hbt.power.service;
+
+import de.hbt.power.Benchmark;
+import de.hbt.power.model.Skill;
+import de.hbt.power.model.SkillCategory;
+import de.hbt.power.repo.SkillCategoryRepository;
+import de.hbt.power.repo.SkillRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.search.Query;
+import org.hibernate.search.jpa.FullTextEntityManager;
+import org.hibernate.search.engine.ProjectionConstants;
+import org.hibernate.search.jpa.Search;
+import org.hibernate.search.query.dsl.QueryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the latency of the prefix search on the edge n-gram fields with the previous wildcard and fuzzy query, and
+ * with answers from the search cache.
+ */
+@Slf4j
+@Category(Benchmark.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@RunWith(SpringJUnit4ClassRunner.class)
+@ActiveProfiles("test")
+public class SkillSearcherServiceBenchmarkITest {
+
+    private static final int SKILL_COUNT = 5_000;
+    private static final int RUNS = 5;
+
+    private static final String[] SEARCH_TERMS = {"b", "j", "ja", "ko", "mar", "sel", "pro", "qu", "ent", "zu"};
+
+    @Autowired
+    private SkillRepository skillRepository;
+
+    @Autowired
+    private SkillCategoryRepository skillCategoryRepository;
+
+    @Autowired
+    private CategoryService categoryService;
+
+    @Autowired
+    private SkillSearcherService skillSearcherService;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private SkillSearchCache skillSearchCache;
+
+    private SkillCategory category;
+
+    @Before
+    public void setUp() {
+        category = skillCategoryRepository.save(SkillCategory.of("SearchBenchmark"));
+        Random random = new Random(42);
+        List<Skill> skills = new ArrayList<>();
+        for (int i = 0; i < SKILL_COUNT; i++) {
+            skills.add(new Skill(word(random) + " " + word(random) + " " + word(random), new HashSet<>(), category));
+        }
+        skillRepository.saveAll(skills);
+    }
+
+    @After
+    public void tearDown() {
+        categoryService.deleteCategory(skillCategoryRepository.findById(category.getId()).orElse(null));
+    }
+
+    @Test
+    public void prefixSearch_shouldBeFasterThanWildcardAndFuzzyQuery_andCacheFasterThanBoth() {
+        FullTextEntityManager em = Search.getFullTextEntityManager(entityManagerFactory.createEntityManager());
+        // Warm up
+        for (int i = 0; i < RUNS; i++) {
+            Arrays.stream(SEARCH_TERMS).forEach(term -> skillSearcherService.searchSkill(term, 10));
+            Arrays.stream(SEARCH_TERMS).forEach(term -> searchWildcardAndFuzzy(em, term));
+        }
+        long prefix = Long.MAX_VALUE;
+        long cached = Long.MAX_VALUE;
+        long wildcard = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            skillSearchCache.invalidate();
+            long start = System.nanoTime();
+            Arrays.stream(SEARCH_TERMS).forEach(term -> skillSearcherService.searchSkill(term, 10));
+            prefix = Math.min(prefix, System.nanoTime() - start);
+            start = System.nanoTime();
+            Arrays.stream(SEARCH_TERMS).forEach(term -> skillSearcherService.searchSkill(term, 10));
+            cached = Math.min(cached, System.nanoTime() - start);
+            start = System.nanoTime();
+            Arrays.stream(SEARCH_TERMS).forEach(term -> searchWildcardAndFuzzy(em, term));
+            wildcard = Math.min(wildcard, System.nanoTime() - start);
+        }
+        em.close();
+        log.info("Search over " + SKILL_COUNT + " skills: prefix fields " + prefix / 1_000_000.0
+                + "ms; cached " + cached / 1_000_000.0 + "ms; wildcard and fuzzy " + wildcard / 1_000_000.0 + "ms");
+        assertThat(prefix).isLessThan(wildcard);
+        assertThat(cached).isLessThan(prefix);
+    }
+
+    /**
+     * The query that was used before the prefixes were indexed
+     */
+    private void searchWildcardAndFuzzy(FullTextEntityManager em, String searchTerm) {
+        QueryBuilder queryBuilder = em.getSearchFactory().buildQueryBuilder().forEntity(Skill.class).get();
+        Query wildcard = queryBuilder.keyword().wildcard()
+                .onFields("qualifier", "qualifiers.qualifier")
+                .matching(searchTerm + "*")
+                .createQuery();
+        Query fuzzy = queryBuilder.keyword().fuzzy()
+                .onFields("qualifier", "qualifiers.qualifier")
+                .matching(searchTerm)
+                .createQuery();
+        Query query = queryBuilder.bool().should(wildcard).should(fuzzy).createQuery();
+        // The qualifier is not stored anymore; The ID is
+        em.createFullTextQuery(query, Skill.class).setMaxResults(10).setProjection(ProjectionConstants.ID).getResultList();
+    }
+
+    private static String word(Random random) {
+        char[] word = new char[4 + random.nextInt(7)];
+        for (int i = 0; i < word.length; i++) {
+            word[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(word);
+    }
+}
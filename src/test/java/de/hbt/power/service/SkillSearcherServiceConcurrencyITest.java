@@ -0,0 +1,100 @@
+package de.hbt.power.service;
+
+import de.hbt.power.model.Skill;
+import de.hbt.power.model.SkillCategory;
+import de.hbt.power.repo.SkillCategoryRepository;
+import de.hbt.power.repo.SkillRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@RunWith(SpringJUnit4ClassRunner.class)
+@ActiveProfiles("test")
+public class SkillSearcherServiceConcurrencyITest {
+
+    private static final int THREADS = 16;
+
+    private static final String[] SEARCH_TERMS = {"con", "concurrent", "skil", "conccurent", "c", "skill 1"};
+
+    @Autowired
+    private SkillRepository skillRepository;
+
+    @Autowired
+    private SkillCategoryRepository skillCategoryRepository;
+
+    @Autowired
+    private CategoryService categoryService;
+
+    @Autowired
+    private SkillSearcherService skillSearcherService;
+
+    private SkillCategory category;
+
+    private final Set<String> qualifiers = new HashSet<>();
+
+    @Before
+    public void setUp() throws Exception {
+        category = skillCategoryRepository.save(SkillCategory.of("SearchConcurrency"));
+        List<Skill> skills = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            skills.add(new Skill("Concurrent Skill " + i, new HashSet<>(), category));
+            qualifiers.add("Concurrent Skill " + i);
+        }
+        skillRepository.saveAll(skills);
+        skillSearcherService.buildSearchIndexSync();
+    }
+
+    @After
+    public void tearDown() {
+        categoryService.deleteCategory(skillCategoryRepository.findById(category.getId()).orElse(null));
+    }
+
+    @Test
+    public void whenSearchingFromManyThreadsDuringReindex_shouldOnlyReturnIndexedSkills() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+        try {
+            Future<?> reindex = executor.submit(() -> {
+                skillSearcherService.buildSearchIndexSync();
+                return null;
+            });
+            AtomicInteger searches = new AtomicInteger();
+            List<Future<Set<String>>> searchers = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                int offset = i;
+                searchers.add(executor.submit(() -> {
+                    Set<String> found = new HashSet<>();
+                    // Keep searching while the index is rebuilt, but at least a few rounds
+                    for (int round = 0; round < 20 || !reindex.isDone(); round++) {
+                        String term = SEARCH_TERMS[(offset + round) % SEARCH_TERMS.length];
+                        // Other tests share the index; Only skills of this test's category are expected
+                        skillSearcherService.search(SkillSearchQuery.builder().term(term).maxResults(20)
+                                .categoryId(category.getId()).build())
+                                .forEach(hit -> found.add(hit.getQualifier()));
+                        searches.incrementAndGet();
+                    }
+                    return found;
+                }));
+            }
+            reindex.get(2, TimeUnit.MINUTES);
+            for (Future<Set<String>> searcher : searchers) {
+                assertThat(qualifiers).containsAll(searcher.get(2, TimeUnit.MINUTES));
+            }
+            assertThat(searches.get()).isGreaterThanOrEqualTo(THREADS * 20);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(skillSearcherService.searchSkill("Concurrent Skill 42", 1)).containsExactly("Concurrent Skill 42");
+    }
+}
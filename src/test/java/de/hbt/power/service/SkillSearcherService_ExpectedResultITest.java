@@ -9,10 +9,13 @@ import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import java.util.List;
+import java.util.Locale;
 
 import de.hbt.power.model.Skill;
+import de.hbt.power.model.dto.SkillSearchHit;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -46,6 +49,36 @@ public class SkillSearcherService_ExpectedResultITest {
         shouldFind("J", "Java");
     }
 
+    @Test
+    public void shouldFindLocalizedQualifiersOfRequestedLanguage() throws Exception {
+        skillRepository.deleteAll();
+        Skill database = Skill.of("Database");
+        database.addLocale(Locale.GERMAN, "Datenbank");
+        skillRepository.save(database);
+        Skill bank = Skill.of("Bank");
+        bank.addLocale(Locale.FRENCH, "Banque de données");
+        skillRepository.save(bank);
+        skillSearcherService.buildSearchIndexSync();
+
+        assertThat(search("daten", "deu")).extracting(SkillSearchHit::getQualifier, SkillSearchHit::getLocalizedQualifier)
+                .containsExactly(tuple("Database", "Datenbank"));
+        assertThat(search("data", "fra")).extracting(SkillSearchHit::getQualifier, SkillSearchHit::getLocalizedQualifier)
+                .containsExactly(tuple("Database", null));
+        assertThat(search("banque", "deu")).isEmpty();
+        assertThat(search("donnees", "fra")).extracting(SkillSearchHit::getQualifier, SkillSearchHit::getLocalizedQualifier)
+                .containsExactly(tuple("Bank", "Banque de données"));
+        assertThat(skillSearcherService.searchSkill("banque", 10)).containsExactly("Bank");
+        // Without language, the localized qualifier that matched is returned
+        assertThat(search("daten", null)).extracting(SkillSearchHit::getQualifier, SkillSearchHit::getLocalizedQualifier)
+                .containsExactly(tuple("Database", "Datenbank"));
+        assertThat(search("datab", null)).extracting(SkillSearchHit::getQualifier, SkillSearchHit::getLocalizedQualifier)
+                .containsExactly(tuple("Database", null));
+    }
+
+    private List<SkillSearchHit> search(String term, String locale) {
+        return skillSearcherService.search(SkillSearchQuery.builder().term(term).maxResults(10).locale(locale).build());
+    }
+
     private void shouldFind(String query, String result) {
         List<String> queryResults = skillSearcherService.searchSkill(query, 100);
         assertThat(queryResults).as("Should find " + result + " for query " + query).containsExactly(result);
@@ -0,0 +1,82 @@
+package de.hbt.power.service;
+
+import de.hbt.power.model.Skill;
+import de.hbt.power.model.SkillCategory;
+import de.hbt.power.repo.SkillCategoryRepository;
+import de.hbt.power.repo.SkillRepository;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.HashSet;
+import java.util.Locale;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@RunWith(SpringJUnit4ClassRunner.class)
+@ActiveProfiles("test")
+@DirtiesContext
+public class SkillTreeFetchPlanITest {
+
+    @Autowired
+    private SkillCategoryRepository skillCategoryRepository;
+
+    @Autowired
+    private SkillRepository skillRepository;
+
+    @Autowired
+    private SkillTreeSnapshotService skillTreeSnapshotService;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+
+    @Before
+    public void setUp() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+    }
+
+    private void persistTree(int categories) {
+        SkillCategory parent = null;
+        for (int i = 0; i < categories; i++) {
+            SkillCategory category = SkillCategory.of("FetchPlanCategory" + i, parent);
+            category.addLocale(Locale.GERMAN, "Kategorie" + i);
+            category = skillCategoryRepository.save(category);
+            Skill skill = new Skill("FetchPlanSkill" + i, new HashSet<>(), category);
+            skill.addLocale(Locale.GERMAN, "Faehigkeit" + i);
+            skill.getVersions().add("1." + i);
+            skill.getVersions().add("2." + i);
+            skillRepository.save(skill);
+            parent = i % 2 == 0 ? category : parent;
+        }
+    }
+
+    private long statementsToLoadTree() {
+        statistics.clear();
+        skillTreeSnapshotService.refresh();
+        return statistics.getPrepareStatementCount();
+    }
+
+    @Test
+    public void loadingTree_shouldNeedConstantNumberOfStatements() {
+        persistTree(5);
+        long statementsForSmallTree = statementsToLoadTree();
+        persistTree(50);
+        long statementsForLargeTree = statementsToLoadTree();
+
+        assertThat(skillTreeSnapshotService.getSnapshot().getSkills()).hasSizeGreaterThanOrEqualTo(55);
+        assertThat(statementsForSmallTree).isEqualTo(2);
+        assertThat(statementsForLargeTree).isEqualTo(2);
+    }
+}
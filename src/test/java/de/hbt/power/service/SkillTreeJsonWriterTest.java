@@ -0,0 +1,42 @@
+package de.hbt.power.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.hbt.power.model.Skill;
+import de.hbt.power.model.SkillCategory;
+import de.hbt.power.model.dto.TCategoryNode;
+import de.hbt.power.model.tree.SkillTreeSnapshot;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Locale;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SkillTreeJsonWriterTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final SkillTreeMappingService skillTreeMappingService = new SkillTreeMappingService(null, null);
+
+    @Test
+    public void whenStreaming_shouldWriteSameTreeAsMaterializedTree() throws Exception {
+        SkillCategory categoryA = new SkillCategory().toBuilder().id(1).qualifier("A").build();
+        categoryA.addLocale(Locale.GERMAN, "A_de");
+        SkillCategory categoryB = new SkillCategory().toBuilder().id(2).qualifier("B").blacklisted(true).category(categoryA).build();
+        SkillCategory categoryC = new SkillCategory().toBuilder().id(3).qualifier("C").custom(true).build();
+
+        Skill s1 = new Skill().toBuilder().category(categoryB).id(20).qualifier("S1").build();
+        s1.addLocale(Locale.ENGLISH, "S1_en");
+        s1.getVersions().add("1.0");
+        Skill s2 = new Skill().toBuilder().category(categoryC).id(30).qualifier("S2").custom(true).build();
+
+        SkillTreeSnapshot snapshot = skillTreeMappingService.toSnapshot(1, asList(categoryA, categoryB, categoryC), asList(s1, s2));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SkillTreeJsonWriter(objectMapper).write(snapshot, out);
+
+        TCategoryNode streamed = objectMapper.readValue(out.toByteArray(), TCategoryNode.class);
+        assertThat(streamed).usingRecursiveComparison().isEqualTo(skillTreeMappingService.buildSkillTree(snapshot));
+    }
+}
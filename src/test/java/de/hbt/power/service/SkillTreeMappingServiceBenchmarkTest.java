@@ -0,0 +1,75 @@
+package de.hbt.power.service;
+
+import de.hbt.power.Benchmark;
+import de.hbt.power.model.Skill;
+import de.hbt.power.model.SkillCategory;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Regression benchmark for the tree build: Building a tree eight times as large must take roughly eight times as
+ * long. The bound is generous to tolerate noise, but far below the factor a superlinear build would need.
+ */
+@Slf4j
+@Category(Benchmark.class)
+public class SkillTreeMappingServiceBenchmarkTest {
+
+    private static final int BRANCHING = 4;
+    private static final int SKILLS_PER_CATEGORY = 5;
+
+    private final SkillTreeMappingService skillTreeMappingService = new SkillTreeMappingService(null, null);
+
+    @Test
+    public void treeBuildTime_shouldGrowLinearlyWithCatalogSize() {
+        List<SkillCategory> smallCategories = new ArrayList<>();
+        List<Skill> smallSkills = new ArrayList<>();
+        createCatalog(5_000, smallCategories, smallSkills);
+        List<SkillCategory> largeCategories = new ArrayList<>();
+        List<Skill> largeSkills = new ArrayList<>();
+        createCatalog(40_000, largeCategories, largeSkills);
+
+        // Warm up
+        for (int i = 0; i < 5; i++) {
+            skillTreeMappingService.buildSkillTree(smallCategories, smallSkills);
+            skillTreeMappingService.buildSkillTree(largeCategories, largeSkills);
+        }
+        long small = bestOf(5, smallCategories, smallSkills);
+        long large = bestOf(5, largeCategories, largeSkills);
+        double ratio = (double) large / small;
+        log.info("Tree build: 5000 categories: " + small / 1_000_000.0 + "ms; 40000 categories: " + large / 1_000_000.0
+                + "ms; ratio " + ratio);
+        assertThat(ratio).isLessThan(20.0);
+    }
+
+    private long bestOf(int runs, List<SkillCategory> categories, List<Skill> skills) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            skillTreeMappingService.buildSkillTree(categories, skills);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    /**
+     * Creates a balanced tree of categories with a fixed number of skills in each of them.
+     */
+    private void createCatalog(int categoryCount, List<SkillCategory> categories, List<Skill> skills) {
+        int skillId = 0;
+        for (int id = 1; id <= categoryCount; id++) {
+            SkillCategory parent = id == 1 ? null : categories.get((id - 2) / BRANCHING);
+            SkillCategory category = new SkillCategory().toBuilder().id(id).qualifier("Category" + id).category(parent).build();
+            categories.add(category);
+            for (int i = 0; i < SKILLS_PER_CATEGORY; i++) {
+                skillId++;
+                skills.add(new Skill().toBuilder().id(skillId).qualifier("Skill" + skillId).category(category).build());
+            }
+        }
+    }
+}
@@ -5,9 +5,10 @@ import de.hbt.power.model.Skill;
 import de.hbt.power.model.SkillCategory;
 import de.hbt.power.model.dto.TCategoryNode;
 import de.hbt.power.model.dto.TSkillNode;
+import de.hbt.power.model.tree.SkillTreeSnapshot;
 import org.junit.Test;
 
-import java.util.HashSet;
+import java.util.ArrayList;
 
 import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
@@ -24,19 +25,56 @@ public class SkillTreeMappingServiceTest {
         Skill s1 = new Skill().toBuilder().category(categoryC).id(20).qualifier("S1").build();
         Skill s2 = new Skill().toBuilder().category(categoryB).id(30).qualifier("S2").build();
 
-        TCategoryNode expectedC = new TCategoryNode().toBuilder().id(3).qualifier("C").build();
-        TCategoryNode expectedB = new TCategoryNode().toBuilder().id(2).qualifier("B").build();
-        TCategoryNode expectedA = new TCategoryNode().toBuilder().id(1).qualifier("A").build();
+        TCategoryNode expectedC = new TCategoryNode().toBuilder().id(3).qualifier("C").childSkillCount(1).build();
+        TCategoryNode expectedB = new TCategoryNode().toBuilder().id(2).qualifier("B").childCategoryCount(1).childSkillCount(1).build();
+        TCategoryNode expectedA = new TCategoryNode().toBuilder().id(1).qualifier("A").childCategoryCount(1).build();
         expectedA.getChildCategories().add(expectedB);
         expectedB.getChildCategories().add(expectedC);
         expectedC.getChildSkills().add(new TSkillNode().toBuilder().qualifier("S1").id(20).build());
         expectedB.getChildSkills().add(new TSkillNode().toBuilder().qualifier("S2").id(30).build());
 
-        TCategoryNode expectedRoot = new TCategoryNode().toBuilder().qualifier("##ROOT##").id(-1).build();
-        expectedRoot.setChildCategories(new HashSet<>(singletonList(expectedA)));
+        TCategoryNode expectedRoot = new TCategoryNode().toBuilder().qualifier("##ROOT##").id(-1).childCategoryCount(1).build();
+        expectedRoot.setChildCategories(new ArrayList<>(singletonList(expectedA)));
 
         SkillTreeMappingService skillTreeMappingService = new SkillTreeMappingService(null, null);
         TCategoryNode result = skillTreeMappingService.buildSkillTree(asList(categoryA, categoryB, categoryC), asList(s1, s2));
         assertThat(result.toString()).isEqualTo(expectedRoot.toString());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void whenGivenSiblings_shouldOrderThemByQualifierThenId() {
+        SkillCategory parent = new SkillCategory().toBuilder().id(1).qualifier("Parent").build();
+        SkillCategory b = new SkillCategory().toBuilder().id(2).qualifier("b").category(parent).build();
+        SkillCategory a2 = new SkillCategory().toBuilder().id(4).qualifier("A").category(parent).build();
+        SkillCategory a1 = new SkillCategory().toBuilder().id(3).qualifier("A").category(parent).build();
+        Skill sZ = new Skill().toBuilder().category(parent).id(10).qualifier("z").build();
+        Skill sY = new Skill().toBuilder().category(parent).id(11).qualifier("Y").build();
+
+        SkillTreeMappingService skillTreeMappingService = new SkillTreeMappingService(null, null);
+        TCategoryNode result = skillTreeMappingService.buildSkillTree(asList(b, parent, a2, a1), asList(sZ, sY));
+        TCategoryNode parentNode = result.getChildCategories().get(0);
+        assertThat(parentNode.getChildCategories()).extracting(TCategoryNode::getId).containsExactly(3, 4, 2);
+        assertThat(parentNode.getChildSkills()).extracting(TSkillNode::getId).containsExactly(11, 10);
+    }
+
+    @Test
+    public void whenBuildingSubtree_shouldCutOffAtDepth_andKeepCounts() {
+        SkillCategory categoryA = new SkillCategory().toBuilder().id(1).qualifier("A").build();
+        SkillCategory categoryB = new SkillCategory().toBuilder().id(2).qualifier("B").category(categoryA).build();
+        SkillCategory categoryC = new SkillCategory().toBuilder().id(3).qualifier("C").category(categoryB).build();
+        Skill s1 = new Skill().toBuilder().category(categoryC).id(20).qualifier("S1").build();
+        Skill s2 = new Skill().toBuilder().category(categoryB).id(30).qualifier("S2").build();
+
+        SkillTreeMappingService skillTreeMappingService = new SkillTreeMappingService(null, null);
+        SkillTreeSnapshot snapshot = skillTreeMappingService.toSnapshot(1, asList(categoryA, categoryB, categoryC), asList(s1, s2));
+        TCategoryNode nodeB = skillTreeMappingService.buildSubtree(snapshot, snapshot.getCategories().get(2), 1);
+
+        assertThat(nodeB.getChildCategoryCount()).isEqualTo(1);
+        assertThat(nodeB.getChildSkillCount()).isEqualTo(1);
+        assertThat(nodeB.getChildSkills()).extracting(TSkillNode::getId).containsExactly(30);
+        TCategoryNode nodeC = nodeB.getChildCategories().get(0);
+        assertThat(nodeC.getId()).isEqualTo(3);
+        assertThat(nodeC.getChildSkills()).isEmpty();
+        assertThat(nodeC.getChildSkillCount()).isEqualTo(1);
+    }
+}
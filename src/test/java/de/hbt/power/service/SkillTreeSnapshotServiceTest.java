@@ -0,0 +1,186 @@
+package de.hbt.power.service;
+
+import de.hbt.power.model.Skill;
+import de.hbt.power.model.SkillCategory;
+import de.hbt.power.model.dto.TCategoryNode;
+import de.hbt.power.model.tree.SkillEntry;
+import de.hbt.power.model.tree.SkillTreeSnapshot;
+import de.hbt.power.repo.SkillCategoryRepository;
+import de.hbt.power.repo.SkillRepository;
+import org.hibernate.LazyInitializationException;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class SkillTreeSnapshotServiceTest {
+
+    @Mock
+    private SkillRepository skillRepository;
+
+    @Mock
+    private SkillCategoryRepository skillCategoryRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    private SkillTreeSnapshotService skillTreeSnapshotService;
+
+    private SkillCategory categoryA;
+    private SkillCategory categoryB;
+    private Skill skill;
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+        categoryA = new SkillCategory().toBuilder().id(1).qualifier("A").build();
+        categoryB = new SkillCategory().toBuilder().id(2).qualifier("B").category(categoryA).build();
+        skill = new Skill().toBuilder().id(10).qualifier("S1").category(categoryB).build();
+        when(skillCategoryRepository.findAllForTree()).thenReturn(asList(categoryA, categoryB));
+        when(skillRepository.findForTree()).thenReturn(singletonList(skill));
+        SkillTreeMappingService mappingService = new SkillTreeMappingService(skillRepository, skillCategoryRepository);
+        skillTreeSnapshotService = new SkillTreeSnapshotService(mappingService, transactionManager, eventPublisher);
+    }
+
+    @Test
+    public void whenReadingTwice_shouldLoadOnlyOnce() {
+        TCategoryNode first = skillTreeSnapshotService.getTree();
+        TCategoryNode second = skillTreeSnapshotService.getTree();
+        assertThat(second).isSameAs(first);
+        verify(skillCategoryRepository, times(1)).findAllForTree();
+        verify(skillRepository, times(1)).findForTree();
+    }
+
+    @Test
+    public void whenCategoryChanged_shouldPublishNewVersion_withoutReloading() {
+        SkillTreeSnapshot before = skillTreeSnapshotService.getSnapshot();
+        categoryB.setBlacklisted(true);
+        skillTreeSnapshotService.categoryChanged(categoryB);
+        SkillTreeSnapshot after = skillTreeSnapshotService.getSnapshot();
+        assertThat(after.getVersion()).isGreaterThan(before.getVersion());
+        assertThat(after.getCategories().get(2).isBlacklisted()).isTrue();
+        assertThat(before.getCategories().get(2).isBlacklisted()).isFalse();
+        verify(skillCategoryRepository, times(1)).findAllForTree();
+        verify(eventPublisher).publishEvent(new CatalogChangedEvent(after.getVersion(), emptyList(), emptySet(), false));
+    }
+
+    @Test
+    public void whenLoadedByAnotherInstance_shouldReturnSameETag_untilCatalogChanged() {
+        String eTag = skillTreeSnapshotService.getCatalogETag();
+        SkillTreeMappingService mappingService = new SkillTreeMappingService(skillRepository, skillCategoryRepository);
+        SkillTreeSnapshotService otherInstance = new SkillTreeSnapshotService(mappingService, transactionManager, eventPublisher);
+        assertThat(otherInstance.getCatalogETag()).isEqualTo(eTag);
+        categoryB.setBlacklisted(true);
+        skillTreeSnapshotService.categoryChanged(categoryB);
+        assertThat(skillTreeSnapshotService.getCatalogETag()).isNotEqualTo(eTag);
+        otherInstance.refresh();
+        assertThat(otherInstance.getCatalogETag()).isEqualTo(skillTreeSnapshotService.getCatalogETag());
+    }
+
+    @Test
+    public void whenParentBlacklisted_shouldDeriveBlacklistingOfChildren() {
+        skillTreeSnapshotService.getSnapshot();
+        categoryA.setBlacklisted(true);
+        skillTreeSnapshotService.categoryChanged(categoryA);
+        SkillTreeSnapshot after = skillTreeSnapshotService.getSnapshot();
+        assertThat(after.getCategories().get(2).isBlacklisted()).isFalse();
+        assertThat(after.isBlacklisted(2)).isTrue();
+        TCategoryNode nodeB = skillTreeSnapshotService.getTree().getChildCategories().get(0).getChildCategories().get(0);
+        assertThat(nodeB.isBlacklisted()).isTrue();
+
+        categoryB.setPath("/1/");
+        assertThat(skillTreeSnapshotService.findAncestorBlacklisted(categoryB)).contains(true);
+    }
+
+    @Test
+    public void whenParentWhitelisted_shouldDeriveWhitelistingOfChildren() {
+        categoryA.setBlacklisted(true);
+        SkillTreeSnapshot before = skillTreeSnapshotService.getSnapshot();
+        assertThat(before.isBlacklisted(2)).isTrue();
+        categoryA.setBlacklisted(false);
+        skillTreeSnapshotService.categoryChanged(categoryA);
+        SkillTreeSnapshot after = skillTreeSnapshotService.getSnapshot();
+        assertThat(after.isBlacklisted(1)).isFalse();
+        assertThat(after.isBlacklisted(2)).isFalse();
+        verify(skillCategoryRepository, times(1)).findAllForTree();
+    }
+
+    @Test
+    public void whenCategoryAdded_shouldSortItIntoSiblings_andKeepOtherChildLists() {
+        SkillTreeSnapshot before = skillTreeSnapshotService.getSnapshot();
+        SkillCategory categoryC = new SkillCategory().toBuilder().id(3).qualifier("0").build();
+        skillTreeSnapshotService.categoryChanged(categoryC);
+        SkillTreeSnapshot after = skillTreeSnapshotService.getSnapshot();
+        assertThat(after.getChildCategories(SkillTreeSnapshot.ROOT_ID)).extracting("id").containsExactly(3, 1);
+        assertThat(after.getChildCategories(1)).isSameAs(before.getChildCategories(1));
+        assertThat(after.getSkills(2)).isSameAs(before.getSkills(2));
+        assertThat(skillTreeSnapshotService.getTree().getChildCategories()).extracting("id").containsExactly(3, 1);
+        verify(skillCategoryRepository, times(1)).findAllForTree();
+    }
+
+    @Test
+    public void whenCategoryRemoved_shouldRemoveChildCategoriesAndSkills() {
+        skillTreeSnapshotService.getSnapshot();
+        skillTreeSnapshotService.categoryRemoved(categoryA);
+        SkillTreeSnapshot after = skillTreeSnapshotService.getSnapshot();
+        assertThat(after.getCategories()).isEmpty();
+        assertThat(after.getSkills()).isEmpty();
+        assertThat(skillTreeSnapshotService.getTree().getChildCategories()).isEmpty();
+        verify(eventPublisher).publishEvent(new CatalogChangedEvent(after.getVersion(), emptyList(), singleton(10), false));
+    }
+
+    @Test
+    public void whenSkillMoved_shouldMoveSkillInTree() {
+        skillTreeSnapshotService.getSnapshot();
+        skill.setCategory(categoryA);
+        skillTreeSnapshotService.skillChanged(skill);
+        TCategoryNode nodeA = skillTreeSnapshotService.getTree().getChildCategories().iterator().next();
+        assertThat(nodeA.getChildSkills()).extracting("id").containsExactly(10);
+        assertThat(nodeA.getChildCategories().iterator().next().getChildSkills()).isEmpty();
+        verify(eventPublisher).publishEvent(new CatalogChangedEvent(skillTreeSnapshotService.getCatalogVersion(),
+                singletonList(SkillEntry.of(skill)), emptySet(), false));
+    }
+
+    @Test
+    public void whenSkillCannotBeConverted_shouldFailWithoutReloading() {
+        SkillTreeSnapshot before = skillTreeSnapshotService.getSnapshot();
+        Skill detached = spy(skill);
+        when(detached.getQualifiers()).thenThrow(new LazyInitializationException("no Session"));
+
+        assertThatThrownBy(() -> skillTreeSnapshotService.skillChanged(detached))
+                .isInstanceOf(LazyInitializationException.class);
+
+        assertThat(skillTreeSnapshotService.getSnapshot()).isSameAs(before);
+        verify(skillCategoryRepository, times(1)).findAllForTree();
+    }
+
+    @Test
+    public void whenRefreshing_withUnchangedDatabase_shouldKeepVersion() {
+        SkillTreeSnapshot before = skillTreeSnapshotService.getSnapshot();
+        skillTreeSnapshotService.refresh();
+        assertThat(skillTreeSnapshotService.getSnapshot()).isSameAs(before);
+    }
+
+    @Test
+    public void whenRefreshing_withChangedDatabase_shouldPublishReload() {
+        skillTreeSnapshotService.getSnapshot();
+        skill.setQualifier("S2");
+        skillTreeSnapshotService.refresh();
+        assertThat(skillTreeSnapshotService.getSnapshot().getSkills().get(10).getQualifier()).isEqualTo("S2");
+        verify(eventPublisher).publishEvent(CatalogChangedEvent.reloaded(skillTreeSnapshotService.getCatalogVersion()));
+    }
+}
@@ -0,0 +1,154 @@
+package de.hbt.power.service;
+
+import de.hbt.power.Benchmark;
+import de.hbt.power.model.dto.SkillSearchHit;
+import de.hbt.power.model.tree.SkillEntry;
+import de.hbt.power.repo.SkillRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mockito.Mock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+@Slf4j
+public class SkillTypeaheadServiceTest {
+
+    @Mock
+    private SkillRepository skillRepository;
+
+    private SkillTypeaheadService skillTypeaheadService;
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+        when(skillRepository.findQualifiersForSearch()).thenReturn(asList(
+                row(1, "Java", null),
+                row(2, "JavaScript", "Java Script"),
+                row(3, "Python", null),
+                row(4, "Kotlin", null),
+                row(5, "Baking", "Backen"),
+                row(5, "Baking", "Pâtisserie")));
+        skillTypeaheadService = new SkillTypeaheadService(skillRepository, 2, 0);
+    }
+
+    private static Object[] row(int id, String qualifier, String localizedQualifier) {
+        return new Object[]{id, qualifier, localizedQualifier};
+    }
+
+    @Test
+    public void whenSearchingPrefix_shouldFindShortestCompletionsFirst_ignoringCase() {
+        assertThat(skillTypeaheadService.search("jA", 10)).containsExactly("Java", "JavaScript");
+        assertThat(skillTypeaheadService.search("J", 1)).containsExactly("Java");
+    }
+
+    @Test
+    public void whenSearchingLocalizedQualifierOrWord_shouldReturnSkillQualifier() {
+        assertThat(skillTypeaheadService.search("back", 10)).containsExactly("Baking");
+        assertThat(skillTypeaheadService.search("pâtis", 10)).containsExactly("Baking");
+        assertThat(skillTypeaheadService.search("script", 10)).containsExactly("JavaScript");
+    }
+
+    @Test
+    public void whenSearchingWithTypo_shouldFindWithinEditDistance() {
+        assertThat(skillTypeaheadService.search("Pyhton", 10)).containsExactly("Python");
+        assertThat(skillTypeaheadService.search("kotlim", 10)).containsExactly("Kotlin");
+        // Short terms are only completed
+        assertThat(skillTypeaheadService.search("ko", 10)).containsExactly("Kotlin");
+        assertThat(skillTypeaheadService.search("xy", 10)).isEmpty();
+    }
+
+    @Test
+    public void whenSearchingSkills_shouldSkipSkillsNotAccepted() {
+        assertThat(skillTypeaheadService.searchSkills("java", 1, id -> id != 1))
+                .extracting(SkillSearchHit::getId, SkillSearchHit::getQualifier)
+                .containsExactly(tuple(2, "JavaScript"));
+    }
+
+    @Test
+    public void whenCatalogChanged_shouldApplyChangedSkills_withoutReloading() {
+        assertThat(skillTypeaheadService.search("Rust", 10)).isEmpty();
+
+        skillTypeaheadService.catalogChanged(new CatalogChangedEvent(2,
+                asList(skill(6, "Rust"), skill(3, "Python 3")), emptySet(), false));
+        skillTypeaheadService.catalogChanged(new CatalogChangedEvent(3, emptyList(), singleton(4), false));
+        skillTypeaheadService.applyPendingChanges();
+
+        assertThat(skillTypeaheadService.search("Rust", 10)).containsExactly("Rust");
+        assertThat(skillTypeaheadService.search("Python", 10)).containsExactly("Python 3");
+        assertThat(skillTypeaheadService.search("Kotlin", 10)).isEmpty();
+        assertThat(skillTypeaheadService.search("Backen", 10)).containsExactly("Baking");
+        verify(skillRepository, times(1)).findQualifiersForSearch();
+    }
+
+    @Test
+    public void whenCatalogReloaded_shouldRebuild() {
+        assertThat(skillTypeaheadService.search("Rust", 10)).isEmpty();
+        when(skillRepository.findQualifiersForSearch()).thenReturn(singletonRow("Rust"));
+
+        skillTypeaheadService.catalogChanged(CatalogChangedEvent.reloaded(2));
+        skillTypeaheadService.applyPendingChanges();
+
+        assertThat(skillTypeaheadService.search("Rust", 10)).containsExactly("Rust");
+        verify(skillRepository, times(2)).findQualifiersForSearch();
+    }
+
+    @Category(Benchmark.class)
+    @Test
+    public void whenSearchingLargeCatalog_shouldAnswerQuickly() {
+        Random random = new Random(42);
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < 50_000; i++) {
+            rows.add(row(i, randomWord(random) + " " + randomWord(random) + i, randomWord(random)));
+        }
+        when(skillRepository.findQualifiersForSearch()).thenReturn(rows);
+        List<String> terms = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            String word = randomWord(random);
+            terms.add(word.substring(0, 1 + random.nextInt(word.length())));
+        }
+        skillTypeaheadService.search("warmup", 20);
+        terms.forEach(term -> skillTypeaheadService.search(term, 20));
+
+        long[] nanos = new long[terms.size()];
+        for (int i = 0; i < terms.size(); i++) {
+            long start = System.nanoTime();
+            skillTypeaheadService.search(terms.get(i), 20);
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        long p99 = nanos[(int) (nanos.length * 0.99)];
+        log.info("Typeahead p99 over 50000 skills: " + p99 / 1000 + " us");
+        // Generous bound, so the test does not depend on the machine; The target is well below 1 ms
+        assertThat(p99).isLessThan(20_000_000L);
+    }
+
+    private static List<Object[]> singletonRow(String qualifier) {
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(row(1, qualifier, null));
+        return rows;
+    }
+
+    private static SkillEntry skill(int id, String qualifier) {
+        return new SkillEntry(id, 1, qualifier, false, emptySet(), emptySet());
+    }
+
+    private static String randomWord(Random random) {
+        char[] word = new char[4 + random.nextInt(6)];
+        for (int i = 0; i < word.length; i++) {
+            word[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(word);
+    }
+}